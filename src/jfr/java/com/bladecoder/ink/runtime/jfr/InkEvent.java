@@ -0,0 +1,25 @@
+package com.bladecoder.ink.runtime.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Fields shared by the ink events.
+ */
+@Category("Ink")
+@StackTrace(false)
+abstract class InkEvent extends Event {
+    @Label("Path")
+    String path;
+
+    @Label("Flow")
+    String flow;
+
+    // The choice text or function name, for the events that have one
+    void setName(String name) {}
+
+    // Characters saved or loaded, for the events that have them
+    void setSize(long size) {}
+}
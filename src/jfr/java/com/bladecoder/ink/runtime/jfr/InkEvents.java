@@ -0,0 +1,89 @@
+package com.bladecoder.ink.runtime.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The events recorded by JfrStoryTracer.
+ */
+final class InkEvents {
+    private InkEvents() {}
+
+    @Name("com.bladecoder.ink.Continue")
+    @Label("Ink Continue")
+    @Description("Story.Continue() or a slice of Story.continueAsync()")
+    static class ContinueEvent extends InkEvent {}
+
+    @Name("com.bladecoder.ink.Choice")
+    @Label("Ink Choice")
+    static class ChoiceEvent extends InkEvent {
+        @Label("Text")
+        String text;
+
+        @Override
+        void setName(String name) {
+            text = name;
+        }
+    }
+
+    @Name("com.bladecoder.ink.ExternalFunction")
+    @Label("Ink External Function")
+    static class ExternalFunctionEvent extends InkEvent {
+        @Label("Function")
+        String function;
+
+        @Override
+        void setName(String name) {
+            function = name;
+        }
+    }
+
+    @Name("com.bladecoder.ink.Snapshot")
+    @Label("Ink State Snapshot")
+    @Description("State copied to look ahead after a newline")
+    static class SnapshotEvent extends InkEvent {}
+
+    @Name("com.bladecoder.ink.Restore")
+    @Label("Ink State Restore")
+    @Description("Story rewound to the snapshot taken at the last newline")
+    static class RestoreEvent extends InkEvent {}
+
+    @Name("com.bladecoder.ink.Save")
+    @Label("Ink Save")
+    static class SaveEvent extends InkEvent {
+        @Label("Characters")
+        @Description("Length of the JSON save, or -1 when written to a stream")
+        long size;
+
+        @Override
+        void setSize(long size) {
+            this.size = size;
+        }
+    }
+
+    @Name("com.bladecoder.ink.Load")
+    @Label("Ink Load")
+    static class LoadEvent extends InkEvent {
+        @Label("Characters")
+        @Description("Length of the JSON save, or -1 when read from a stream")
+        long size;
+
+        @Override
+        void setSize(long size) {
+            this.size = size;
+        }
+    }
+
+    @Name("com.bladecoder.ink.Error")
+    @Label("Ink Error")
+    @StackTrace(true)
+    static class ErrorEvent extends InkEvent {
+        @Label("Message")
+        String message;
+
+        @Label("Warning")
+        boolean warning;
+    }
+}
@@ -0,0 +1,75 @@
+package com.bladecoder.ink.runtime.jfr;
+
+import com.bladecoder.ink.runtime.StoryTracer;
+
+/**
+ * Records what a story does as Java Flight Recorder events, in the "Ink"
+ * category, each with the story path and flow name: Continue() calls, choices,
+ * external function calls, state snapshots and restores, saves, loads and
+ * errors. To use:
+ *
+ * story.setTracer(new JfrStoryTracer());
+ *
+ * Events that aren't enabled in the recording cost a check and an allocation.
+ * Needs Java 11 or later.
+ */
+public class JfrStoryTracer implements StoryTracer {
+    @Override
+    public Object begin(Operation operation, String name, String path, String flowName) {
+        InkEvent event = newEvent(operation);
+
+        if (!event.isEnabled()) return null;
+
+        event.path = path;
+        event.flow = flowName;
+        event.setName(name);
+        event.begin();
+
+        return event;
+    }
+
+    @Override
+    public void end(Object span, Operation operation, long size) {
+        if (span == null) return;
+
+        InkEvent event = (InkEvent) span;
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.setSize(size);
+            event.commit();
+        }
+    }
+
+    @Override
+    public void error(String message, boolean isWarning, String path, String flowName) {
+        InkEvents.ErrorEvent event = new InkEvents.ErrorEvent();
+
+        if (!event.isEnabled()) return;
+
+        event.path = path;
+        event.flow = flowName;
+        event.message = message;
+        event.warning = isWarning;
+        event.commit();
+    }
+
+    private static InkEvent newEvent(Operation operation) {
+        switch (operation) {
+            case Continue:
+                return new InkEvents.ContinueEvent();
+            case Choice:
+                return new InkEvents.ChoiceEvent();
+            case ExternalFunction:
+                return new InkEvents.ExternalFunctionEvent();
+            case Snapshot:
+                return new InkEvents.SnapshotEvent();
+            case Restore:
+                return new InkEvents.RestoreEvent();
+            case Save:
+                return new InkEvents.SaveEvent();
+            default:
+                return new InkEvents.LoadEvent();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Taking a choice and continuing to the first line after it, always from the
+ * first choice point of the story.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChoiceBenchmark {
+    @Param({"gather/complex-flow", "runtime/load-save", Stories.GENERATED})
+    public String storyName;
+
+    private Story story;
+    private String atChoice;
+
+    @Setup
+    public void setup() throws Exception {
+        story = new Story(Stories.json(storyName));
+
+        story.continueMaximally();
+
+        if (story.getCurrentChoices().isEmpty()) throw new Exception("No choices in " + storyName);
+
+        atChoice = story.getState().toJson();
+    }
+
+    // Not timed, but it makes each invocation a few microseconds slower to run
+    @Setup(Level.Invocation)
+    public void loadChoicePoint() throws Exception {
+        story.getState().loadJson(atChoice);
+    }
+
+    @Benchmark
+    public String chooseChoiceIndex() throws Exception {
+        story.chooseChoiceIndex(0);
+
+        // Choosing only sets the path, it's taken by the next Continue()
+        return story.Continue();
+    }
+}
@@ -0,0 +1,32 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Calling an ink function from the game.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FunctionBenchmark {
+    private Story story;
+    private final Object[] arguments = {2, 8, 0.4f};
+
+    @Setup
+    public void setup() throws Exception {
+        story = new Story(Stories.json("function/func-basic"));
+        story.continueMaximally();
+    }
+
+    @Benchmark
+    public Object evaluateFunction() throws Exception {
+        return story.evaluateFunction("lerp", arguments);
+    }
+}
@@ -0,0 +1,34 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Creating a story from its JSON.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LoadBenchmark {
+    @Param({"gather/complex-flow", "lists/more-list-operations2", "runtime/multiflow-npcs", Stories.GENERATED})
+    public String storyName;
+
+    private String json;
+
+    @Setup
+    public void setup() throws Exception {
+        json = Stories.json(storyName);
+    }
+
+    @Benchmark
+    public Story load() throws Exception {
+        return new Story(json);
+    }
+}
@@ -0,0 +1,67 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Continuing a story, taking the first choice when it gets to some.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlayBenchmark {
+    @Param({"gather/complex-flow", "runtime/load-save", "lists/more-list-operations2", Stories.GENERATED})
+    public String storyName;
+
+    private Story story;
+
+    @Setup
+    public void setup() throws Exception {
+        story = new Story(Stories.json(storyName));
+    }
+
+    @Benchmark
+    public String continueLine() throws Exception {
+        return Stories.next(story);
+    }
+
+    /**
+     * A line in slices of up to 0.01ms, reading the clock after every step.
+     */
+    @Benchmark
+    public String continueAsyncTime() throws Exception {
+        Stories.goOn(story);
+
+        story.continueAsync(0.01f);
+        while (!story.asyncContinueComplete()) story.resumeAsync();
+
+        return story.getCurrentText();
+    }
+
+    /**
+     * A line in slices of up to 10 steps, never reading the clock.
+     */
+    @Benchmark
+    public String continueAsyncSteps() throws Exception {
+        Stories.goOn(story);
+
+        story.continueAsyncSteps(10);
+        while (!story.asyncContinueComplete()) story.resumeAsync();
+
+        return story.getCurrentText();
+    }
+
+    @Benchmark
+    public String continueMaximally() throws Exception {
+        Stories.goOn(story);
+
+        return story.continueMaximally();
+    }
+}
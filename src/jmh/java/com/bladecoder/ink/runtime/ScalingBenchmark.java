@@ -0,0 +1,89 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Load, continue and save costs by story size, on stories from
+ * StoryGenerator. Sizes can be changed from the command line, e.g.
+ * -p knots=20000 -p globals=5000.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScalingBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int knots;
+
+    @Param({"4"})
+    public int tunnelDepth;
+
+    @Param({"100"})
+    public int globals;
+
+    @Param({"10"})
+    public int lists;
+
+    @Param({"50"})
+    public int listItems;
+
+    @Param({"3"})
+    public int choicesPerKnot;
+
+    @Param({"8"})
+    public int wordsPerLine;
+
+    private String json;
+    private Story story;
+    private String saved;
+
+    @Setup
+    public void setup() throws Exception {
+        json = new StoryGenerator()
+                .setKnots(knots)
+                .setTunnelDepth(tunnelDepth)
+                .setGlobals(globals)
+                .setLists(lists)
+                .setListItems(listItems)
+                .setChoicesPerKnot(choicesPerKnot)
+                .setWordsPerLine(wordsPerLine)
+                .setSeed(1)
+                .generate();
+
+        story = new Story(json);
+
+        // Some way into the story, so there are visit counts to save
+        for (int i = 0; i < 100; i++) Stories.next(story);
+
+        saved = story.getState().toJson();
+    }
+
+    @Benchmark
+    public Story load() throws Exception {
+        return new Story(json);
+    }
+
+    @Benchmark
+    public String continueLine() throws Exception {
+        return Stories.next(story);
+    }
+
+    @Benchmark
+    public String toJson() throws Exception {
+        return story.getState().toJson();
+    }
+
+    @Benchmark
+    public StoryState loadJson() throws Exception {
+        story.getState().loadJson(saved);
+
+        return story.getState();
+    }
+}
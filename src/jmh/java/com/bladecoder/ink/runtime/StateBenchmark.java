@@ -0,0 +1,94 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Saving and restoring the state of a story some way into it: as JSON, as
+ * compressed JSON, from a ReplayLog and as the snapshots the story takes to
+ * look ahead after a newline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StateBenchmark {
+    @Param({"gather/complex-flow", "lists/more-list-operations2", "runtime/multiflow-npcs", Stories.GENERATED})
+    public String storyName;
+
+    @Param({"20"})
+    public int lines;
+
+    private Story story;
+    private String saved;
+    private byte[] compressed;
+    private ReplayLog log;
+
+    @Setup
+    public void setup() throws Exception {
+        story = new Story(Stories.json(storyName));
+        log = story.startRecording();
+
+        for (int i = 0; i < lines; i++) {
+            if (!story.canContinue()) {
+                if (story.getCurrentChoices().isEmpty()) break;
+
+                story.chooseChoiceIndex(0);
+            }
+
+            story.Continue();
+        }
+
+        story.stopRecording();
+        saved = story.getState().toJson();
+        compressed = story.getState().toCompressedJson();
+    }
+
+    @Benchmark
+    public String toJson() throws Exception {
+        return story.getState().toJson();
+    }
+
+    @Benchmark
+    public StoryState loadJson() throws Exception {
+        story.getState().loadJson(saved);
+
+        return story.getState();
+    }
+
+    @Benchmark
+    public byte[] toCompressedJson() throws Exception {
+        return story.getState().toCompressedJson();
+    }
+
+    @Benchmark
+    public StoryState loadCompressedJson() throws Exception {
+        story.getState().loadCompressedJson(compressed);
+
+        return story.getState();
+    }
+
+    @Benchmark
+    public StoryState replay() throws Exception {
+        story.replay(log);
+        story.stopRecording();
+
+        return story.getState();
+    }
+
+    @Benchmark
+    public StoryState snapshot() throws Exception {
+        StoryState state = story.getState();
+        StoryState copy = state.copyAndStartPatching(false);
+
+        state.restoreAfterPatch();
+
+        return copy;
+    }
+}
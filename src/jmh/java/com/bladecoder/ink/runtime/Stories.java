@@ -0,0 +1,62 @@
+package com.bladecoder.ink.runtime;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The stories the benchmarks are run on: the test stories under inkfiles/, by
+ * their path without the .ink.json extension, or "generated" for a large story
+ * from StoryGenerator.
+ */
+class Stories {
+    static final String GENERATED = "generated";
+
+    static String json(String name) throws Exception {
+        if (GENERATED.equals(name)) {
+            return new StoryGenerator()
+                    .setKnots(500)
+                    .setTunnelDepth(2)
+                    .setLists(5)
+                    .setSeed(1)
+                    .generate();
+        }
+
+        String filename = "inkfiles/" + name + ".ink.json";
+        InputStream in = Stories.class.getClassLoader().getResourceAsStream(filename);
+
+        if (in == null) throw new Exception("Story not found: " + filename);
+
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            StringBuilder sb = new StringBuilder();
+            String line = br.readLine();
+
+            while (line != null) {
+                sb.append(line);
+                sb.append("\n");
+                line = br.readLine();
+            }
+
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Continues the story one line, going on through its first choice when it
+     * stops at a choice point and starting over at the end, so it can be
+     * played for ever.
+     */
+    static String next(Story story) throws Exception {
+        goOn(story);
+
+        return story.Continue();
+    }
+
+    static void goOn(Story story) throws Exception {
+        if (story.canContinue()) return;
+
+        if (story.getCurrentChoices().isEmpty()) story.resetState();
+        else story.chooseChoiceIndex(0);
+    }
+}
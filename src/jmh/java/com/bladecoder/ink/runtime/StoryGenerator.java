@@ -0,0 +1,282 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds synthetic stories of any size for the benchmarks, as runtime content
+ * written out with Json.writeRuntimeContainer().
+ *
+ * The story is a set of knots. Each has some lines of text, increments a
+ * random global, adds an item to a random list variable, goes down a chain of
+ * tunnels (one line each) and ends in sticky choices that divert to random
+ * knots, so it can be played for ever. The same seed gives the same story.
+ */
+public class StoryGenerator {
+    private static final String[] WORDS = {
+        "the", "old", "lantern", "flickered", "as", "we", "crossed", "a", "silent", "courtyard", "towards", "gate",
+        "and", "nobody", "said", "anything", "about", "rain"
+    };
+
+    private int knots = 100;
+    private int linesPerKnot = 5;
+    private int wordsPerLine = 8;
+    private int choicesPerKnot = 3;
+    private int tunnelDepth = 0;
+    private int globals = 10;
+    private int lists = 0;
+    private int listItems = 10;
+    private long seed;
+
+    public StoryGenerator setKnots(int knots) {
+        this.knots = knots;
+        return this;
+    }
+
+    public StoryGenerator setLinesPerKnot(int linesPerKnot) {
+        this.linesPerKnot = linesPerKnot;
+        return this;
+    }
+
+    public StoryGenerator setWordsPerLine(int wordsPerLine) {
+        this.wordsPerLine = wordsPerLine;
+        return this;
+    }
+
+    public StoryGenerator setChoicesPerKnot(int choicesPerKnot) {
+        this.choicesPerKnot = choicesPerKnot;
+        return this;
+    }
+
+    /**
+     * Number of tunnels each knot goes through, each called from the one
+     * before.
+     */
+    public StoryGenerator setTunnelDepth(int tunnelDepth) {
+        this.tunnelDepth = tunnelDepth;
+        return this;
+    }
+
+    /**
+     * Number of integer globals. There's always at least one.
+     */
+    public StoryGenerator setGlobals(int globals) {
+        this.globals = globals;
+        return this;
+    }
+
+    /**
+     * Number of LIST definitions, each with a global variable of the same name.
+     */
+    public StoryGenerator setLists(int lists) {
+        this.lists = lists;
+        return this;
+    }
+
+    public StoryGenerator setListItems(int listItems) {
+        this.listItems = listItems;
+        return this;
+    }
+
+    public StoryGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * The story in the JSON format Story is created from.
+     */
+    public String generate() throws Exception {
+        Random random = new Random(seed);
+        Container root = new Container();
+
+        List<RTObject> content = new ArrayList<>();
+        content.add(divert("knot_0"));
+        content.add(new ControlCommand(ControlCommand.CommandType.Done));
+        root.addContents(content);
+
+        for (int i = 0; i < knots; i++) root.addToNamedContentOnly(knot(i, random));
+
+        root.addToNamedContentOnly(globalDeclarations());
+
+        SimpleJson.Writer writer = new SimpleJson.Writer();
+        writer.writeObjectStart();
+        writer.writeProperty("inkVersion", Story.inkVersionCurrent);
+        writer.writePropertyStart("root");
+        Json.writeRuntimeContainer(writer, root);
+        writer.writePropertyEnd();
+
+        writer.writePropertyStart("listDefs");
+        writer.writeObjectStart();
+        for (int l = 0; l < lists; l++) {
+            writer.writePropertyStart(listName(l));
+            writer.writeObjectStart();
+            for (int item = 0; item < listItems; item++) writer.writeProperty(itemName(item), item + 1);
+            writer.writeObjectEnd();
+            writer.writePropertyEnd();
+        }
+        writer.writeObjectEnd();
+        writer.writePropertyEnd();
+
+        writer.writeObjectEnd();
+
+        return writer.toString();
+    }
+
+    private Container knot(int index, Random random) throws Exception {
+        String name = "knot_" + index;
+        List<RTObject> content = new ArrayList<>();
+
+        for (int line = 0; line < linesPerKnot; line++) addLine(content, random);
+
+        // ~ g = g + 1
+        String global = globalName(random.nextInt(Math.max(globals, 1)));
+        content.add(new ControlCommand(ControlCommand.CommandType.EvalStart));
+        content.add(new VariableReference(global));
+        content.add(new IntValue(1));
+        content.add(NativeFunctionCall.callWithName("+"));
+        content.add(new ControlCommand(ControlCommand.CommandType.EvalEnd));
+        content.add(globalAssignment(global, false));
+
+        // ~ l += item
+        if (lists > 0 && listItems > 0) {
+            String list = listName(random.nextInt(lists));
+            InkListItem item = new InkListItem(list, itemName(random.nextInt(listItems)));
+
+            content.add(new ControlCommand(ControlCommand.CommandType.EvalStart));
+            content.add(new VariableReference(list));
+            content.add(new ListValue(item, 0));
+            content.add(NativeFunctionCall.callWithName("+"));
+            content.add(new ControlCommand(ControlCommand.CommandType.EvalEnd));
+            content.add(globalAssignment(list, false));
+        }
+
+        // -> t_0 ->
+        if (tunnelDepth > 0) content.add(tunnel(name + ".t_0"));
+
+        List<Container> namedContent = new ArrayList<>();
+
+        for (int c = 0; c < choicesPerKnot; c++) {
+            String target = "knot_" + random.nextInt(knots);
+            String choiceName = "c-" + c;
+
+            // + [Go to knot_n] -> knot_n
+            content.add(new ControlCommand(ControlCommand.CommandType.EvalStart));
+            content.add(new ControlCommand(ControlCommand.CommandType.BeginString));
+            content.add(new StringValue("Go to " + target));
+            content.add(new ControlCommand(ControlCommand.CommandType.EndString));
+            content.add(new ControlCommand(ControlCommand.CommandType.EvalEnd));
+
+            ChoicePoint choice = new ChoicePoint(false);
+            choice.setHasChoiceOnlyContent(true);
+            choice.setPathStringOnChoice(name + "." + choiceName);
+            content.add(choice);
+
+            namedContent.add(container(choiceName, Container.COUNTFLAGS_VISITS, divert(target)));
+        }
+
+        content.add(new ControlCommand(ControlCommand.CommandType.Done));
+
+        for (int depth = 0; depth < tunnelDepth; depth++) {
+            List<RTObject> tunnelContent = new ArrayList<>();
+
+            addLine(tunnelContent, random);
+
+            if (depth + 1 < tunnelDepth) tunnelContent.add(tunnel(name + ".t_" + (depth + 1)));
+
+            // ->->
+            tunnelContent.add(new ControlCommand(ControlCommand.CommandType.EvalStart));
+            tunnelContent.add(new Void());
+            tunnelContent.add(new ControlCommand(ControlCommand.CommandType.EvalEnd));
+            tunnelContent.add(new ControlCommand(ControlCommand.CommandType.PopTunnel));
+
+            namedContent.add(
+                    container("t_" + depth, Container.COUNTFLAGS_VISITS, tunnelContent.toArray(new RTObject[0])));
+        }
+
+        Container knot = container(name, Container.COUNTFLAGS_VISITS, content.toArray(new RTObject[0]));
+        for (Container c : namedContent) knot.addToNamedContentOnly(c);
+
+        return knot;
+    }
+
+    private void addLine(List<RTObject> content, Random random) {
+        StringBuilder sb = new StringBuilder();
+
+        for (int word = 0; word < wordsPerLine; word++) {
+            if (word > 0) sb.append(' ');
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        sb.append('.');
+
+        content.add(new StringValue(sb.toString()));
+        content.add(new StringValue("\n"));
+    }
+
+    private Container globalDeclarations() throws Exception {
+        List<RTObject> content = new ArrayList<>();
+
+        content.add(new ControlCommand(ControlCommand.CommandType.EvalStart));
+
+        for (int g = 0; g < Math.max(globals, 1); g++) {
+            content.add(new IntValue(0));
+            content.add(globalAssignment(globalName(g), true));
+        }
+
+        for (int l = 0; l < lists; l++) {
+            InkList list = new InkList();
+            list.setInitialOriginName(listName(l));
+
+            content.add(new ListValue(list));
+            content.add(globalAssignment(listName(l), true));
+        }
+
+        content.add(new ControlCommand(ControlCommand.CommandType.EvalEnd));
+        content.add(new ControlCommand(ControlCommand.CommandType.End));
+
+        return container("global decl", 0, content.toArray(new RTObject[0]));
+    }
+
+    private static String globalName(int index) {
+        return "g_" + index;
+    }
+
+    private static String listName(int index) {
+        return "l_" + index;
+    }
+
+    private static String itemName(int index) {
+        return "i_" + index;
+    }
+
+    private static Container container(String name, int countFlags, RTObject... content) throws Exception {
+        Container container = new Container();
+        container.setName(name);
+        container.setCountFlags(countFlags);
+
+        List<RTObject> contentList = new ArrayList<>();
+        for (RTObject obj : content) contentList.add(obj);
+        container.addContents(contentList);
+
+        return container;
+    }
+
+    private static Divert divert(String target) {
+        Divert divert = new Divert();
+        divert.setTargetPathString(target);
+        return divert;
+    }
+
+    private static Divert tunnel(String target) {
+        Divert divert = new Divert(PushPopType.Tunnel);
+        divert.setTargetPathString(target);
+        return divert;
+    }
+
+    private static VariableAssignment globalAssignment(String name, boolean isNewDeclaration) throws Exception {
+        VariableAssignment assignment = new VariableAssignment(name, isNewDeclaration);
+        assignment.setIsGlobal(true);
+        return assignment;
+    }
+}
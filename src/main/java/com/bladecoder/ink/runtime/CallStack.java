@@ -68,47 +68,25 @@ public class CallStack {
 
                 PushPopType pushPopType = PushPopType.values()[(Integer) jElementObj.get("type")];
 
-                final Pointer pointer = new Pointer(Pointer.Null);
-
                 String currentContainerPathStr = null;
+                int idx = 0;
                 Object currentContainerPathStrToken = jElementObj.get("cPath");
                 if (currentContainerPathStrToken != null) {
                     currentContainerPathStr = currentContainerPathStrToken.toString();
-                    final SearchResult threadPointerResult =
-                            storyContext.contentAtPath(new Path(currentContainerPathStr));
-                    pointer.container = threadPointerResult.getContainer();
-                    pointer.index = (int) jElementObj.get("idx");
-
-                    if (threadPointerResult.obj == null) {
-                        throw new Exception("When loading state, internal story location couldn't be found: "
-                                + currentContainerPathStr
-                                + ". Has the story changed since this save data was created?");
-                    } else if (threadPointerResult.approximate) {
-                        if (pointer.container != null) {
-                            storyContext.warning(
-                                    "When loading state, exact internal story location couldn't be found: '"
-                                            + currentContainerPathStr + "', so it was approximated to '"
-                                            + pointer.container.getPath().toString()
-                                            + "' to recover. Has the story changed since this save data was created?");
-                        } else {
-                            storyContext.warning(
-                                    "When loading state, exact internal story location couldn't be found: '"
-                                            + currentContainerPathStr
-                                            + "' and it may not be recoverable. Has the story changed since this save data was created?");
-                        }
-                    }
+                    idx = (int) jElementObj.get("idx");
                 }
 
                 boolean inExpressionEvaluation = (boolean) jElementObj.get("exp");
 
-                Element el = new Element(pushPopType, pointer, inExpressionEvaluation);
-
                 Object temps = jElementObj.get("temp");
-                if (temps != null) {
-                    el.temporaryVariables = Json.jObjectToHashMapRuntimeObjs((HashMap<String, Object>) temps);
-                } else {
-                    el.temporaryVariables.clear();
-                }
+
+                Element el = loadElement(
+                        storyContext,
+                        pushPopType,
+                        currentContainerPathStr,
+                        idx,
+                        inExpressionEvaluation,
+                        temps != null ? Json.jObjectToHashMapRuntimeObjs((HashMap<String, Object>) temps) : null);
 
                 callstack.add(el);
             }
@@ -120,6 +98,102 @@ public class CallStack {
             }
         }
 
+        Thread(SimpleJson.StreamReader reader, Story storyContext) throws Exception {
+            this();
+
+            String prevContentObjPath = null;
+
+            reader.readObjectStart();
+            while (reader.nextProperty()) {
+                String key = reader.readPropertyName();
+
+                if (key.equals("callstack")) {
+                    reader.readArrayStart();
+                    while (reader.nextElement()) callstack.add(readElement(reader, storyContext));
+                } else if (key.equals("threadIndex")) {
+                    threadIndex = reader.readInt();
+                } else if (key.equals("previousContentObject")) {
+                    prevContentObjPath = reader.readString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+
+            if (prevContentObjPath != null) {
+                previousPointer.assign(storyContext.pointerAtPath(new Path(prevContentObjPath)));
+            }
+        }
+
+        private static Element readElement(SimpleJson.StreamReader reader, Story storyContext) throws Exception {
+            String currentContainerPathStr = null;
+            int idx = 0;
+            int type = 0;
+            boolean inExpressionEvaluation = false;
+            HashMap<String, RTObject> temps = null;
+
+            reader.readObjectStart();
+            while (reader.nextProperty()) {
+                String key = reader.readPropertyName();
+
+                if (key.equals("cPath")) currentContainerPathStr = reader.readString();
+                else if (key.equals("idx")) idx = reader.readInt();
+                else if (key.equals("exp")) inExpressionEvaluation = reader.readBoolean();
+                else if (key.equals("type")) type = reader.readInt();
+                else if (key.equals("temp")) temps = Json.readHashMapRuntimeObjs(reader);
+                else reader.skipValue();
+            }
+
+            return loadElement(
+                    storyContext,
+                    PushPopType.values()[type],
+                    currentContainerPathStr,
+                    idx,
+                    inExpressionEvaluation,
+                    temps);
+        }
+
+        private static Element loadElement(
+                Story storyContext,
+                PushPopType pushPopType,
+                String currentContainerPathStr,
+                int idx,
+                boolean inExpressionEvaluation,
+                HashMap<String, RTObject> temps)
+                throws Exception {
+            final Pointer pointer = new Pointer(Pointer.Null);
+
+            if (currentContainerPathStr != null) {
+                final SearchResult threadPointerResult = storyContext.contentAtPath(new Path(currentContainerPathStr));
+                pointer.container = threadPointerResult.getContainer();
+                pointer.index = idx;
+
+                if (threadPointerResult.obj == null) {
+                    throw new Exception("When loading state, internal story location couldn't be found: "
+                            + currentContainerPathStr
+                            + ". Has the story changed since this save data was created?");
+                } else if (threadPointerResult.approximate) {
+                    if (pointer.container != null) {
+                        storyContext.warning("When loading state, exact internal story location couldn't be found: '"
+                                + currentContainerPathStr + "', so it was approximated to '"
+                                + pointer.container.getPath().toString()
+                                + "' to recover. Has the story changed since this save data was created?");
+                    } else {
+                        storyContext.warning("When loading state, exact internal story location couldn't be found: '"
+                                + currentContainerPathStr
+                                + "' and it may not be recoverable. Has the story changed since this save data was created?");
+                    }
+                }
+            }
+
+            Element el = new Element(pushPopType, pointer, inExpressionEvaluation);
+
+            if (temps != null) {
+                el.temporaryVariables = temps;
+            }
+
+            return el;
+        }
+
         public Thread copy() {
             Thread copy = new Thread();
             copy.threadIndex = threadIndex;
@@ -130,6 +204,22 @@ public class CallStack {
             return copy;
         }
 
+        long getFingerprint() {
+            long h = Fingerprint.combine(threadIndex, Fingerprint.pointer(previousPointer));
+
+            for (Element e : callstack) {
+                h = Fingerprint.combine(h, e.type.ordinal());
+                h = Fingerprint.combine(h, Fingerprint.pointer(e.currentPointer));
+                h = Fingerprint.combine(h, e.inExpressionEvaluation ? 1 : 0);
+                h = Fingerprint.combine(h, Fingerprint.objMap(e.temporaryVariables));
+
+                // Not the evaluation stack height and output stream position, which
+                // depend on the output so far (and aren't saved either)
+            }
+
+            return h;
+        }
+
         public void writeJson(SimpleJson.Writer writer) throws Exception {
             writer.writeObjectStart();
 
@@ -189,16 +279,32 @@ public class CallStack {
     public CallStack(Story storyContext) {
         startOfRoot.assign(Pointer.startOf(storyContext.getMainContentContainer()));
 
+        threads = new ArrayList<>();
         reset();
     }
 
     public void reset() {
-        threads = new ArrayList<>();
+        threads.clear();
         threads.add(new Thread());
 
         threads.get(0).callstack.add(new Element(PushPopType.Tunnel, startOfRoot));
     }
 
+    // Same as reset(), but also restarts the thread numbering so the callstack ends
+    // up exactly as a newly constructed one.
+    void resetAll() {
+        reset();
+        threadCounter = 0;
+    }
+
+    long getFingerprint() {
+        long h = threadCounter;
+
+        for (Thread thread : threads) h = Fingerprint.combine(h, thread.getFingerprint());
+
+        return h;
+    }
+
     public boolean canPop() {
         return getCallStack().size() > 1;
     }
@@ -374,6 +480,26 @@ public class CallStack {
         startOfRoot.assign(Pointer.startOf(storyContext.getMainContentContainer()));
     }
 
+    void setJsonToken(SimpleJson.StreamReader reader, Story storyContext) throws Exception {
+        threads.clear();
+
+        reader.readObjectStart();
+        while (reader.nextProperty()) {
+            String key = reader.readPropertyName();
+
+            if (key.equals("threads")) {
+                reader.readArrayStart();
+                while (reader.nextElement()) threads.add(new Thread(reader, storyContext));
+            } else if (key.equals("threadCounter")) {
+                threadCounter = reader.readInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+
+        startOfRoot.assign(Pointer.startOf(storyContext.getMainContentContainer()));
+    }
+
     public Thread forkThread() {
         Thread forkedThread = getcurrentThread().copy();
         threadCounter++;
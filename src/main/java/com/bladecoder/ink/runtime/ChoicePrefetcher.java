@@ -0,0 +1,204 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Works out the first line behind each of the current choices of a story in
+ * the background, so it can be shown as soon as a choice is taken.
+ *
+ * prefetch() saves the state at a choice point and, for every choice, a
+ * background task loads it into its own Story, chooses the choice and
+ * continues one line. chooseChoiceIndex() then adopts the resulting state
+ * instead of running the line again. An outcome is only used if it's ready
+ * and the story is still in the state it was worked out from (same
+ * StoryState.getFingerprint(), so e.g. globals set by the game in the
+ * meantime invalidate it). Only the current flow and the state shared by all
+ * flows are adopted, so other flows continued in the meantime keep their
+ * progress.
+ *
+ * External functions have side effects and aren't called speculatively: a
+ * line that calls one is never prefetched. Neither are outcomes adopted when
+ * the story has variable observers, which only see the changes of lines
+ * that are actually run. Choice points with a fallback choice aren't
+ * prefetched either, since saved states don't tell it from the other choices.
+ */
+public class ChoicePrefetcher {
+    private final Story story;
+    private final String json;
+    private final ExecutorService executor;
+
+    // Stories of the executor threads
+    private final ThreadLocal<Story> workerStory = new ThreadLocal<>();
+
+    private final List<Future<Outcome>> outcomes = new ArrayList<>();
+    private long fingerprint;
+
+    // State reached by choosing a choice and continuing one line
+    private static class Outcome {
+        final String stateJson;
+        final String text;
+        final List<String> tags;
+
+        Outcome(String stateJson, String text, List<String> tags) {
+            this.stateJson = stateJson;
+            this.text = text;
+            this.tags = tags;
+        }
+    }
+
+    /**
+     * @param story    The story played by the game.
+     * @param json     The JSON the story was created from.
+     * @param executor Where choices are worked out. It's left running.
+     */
+    public ChoicePrefetcher(Story story, String json, ExecutorService executor) {
+        this.story = story;
+        this.json = json;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts working out the first line of every current choice. Call it when
+     * the story gets to a choice point. Any previous prefetch is cancelled.
+     */
+    public void prefetch() throws Exception {
+        cancel();
+
+        if (story.canContinue() || hasFallbackChoice(story.getState())) return;
+
+        final String saved = story.getState().toJson();
+        fingerprint = story.getState().getFingerprint();
+
+        for (int i = 0; i < story.getCurrentChoices().size(); i++) {
+            final int choiceIdx = i;
+
+            outcomes.add(executor.submit(new Callable<Outcome>() {
+                @Override
+                public Outcome call() throws Exception {
+                    return play(saved, choiceIdx);
+                }
+            }));
+        }
+    }
+
+    private Outcome play(String saved, int choiceIdx) throws Exception {
+        Story s = workerStory.get();
+
+        if (s == null) {
+            s = new Story(json);
+
+            // Externals are left unbound, so that calling one is an error. This
+            // only checks they're bound on the first Continue, so do it now.
+            try {
+                s.validateExternalBindings();
+            } catch (StoryException e) {
+                // Some are missing
+            }
+
+            workerStory.set(s);
+        }
+
+        final List<String> errors = new ArrayList<>();
+        s.onError = new Error.ErrorHandler() {
+            @Override
+            public void error(String message, Error.ErrorType type) {
+                errors.add(message);
+            }
+        };
+
+        try {
+            s.getState().loadJson(saved);
+            s.chooseChoiceIndex(choiceIdx);
+            s.Continue();
+        } catch (Exception e) {
+            // Left in the middle of an evaluation
+            workerStory.remove();
+            return null;
+        }
+
+        if (!errors.isEmpty() || hasFallbackChoice(s.getState())) return null;
+
+        return new Outcome(
+                s.getState().toJsonWithCurrentFlowOnly(), s.getCurrentText(), new ArrayList<>(s.getCurrentTags()));
+    }
+
+    private static boolean hasFallbackChoice(StoryState state) {
+        for (Choice c : state.getCurrentChoices()) {
+            if (c.isInvisibleDefault) return true;
+        }
+
+        return false;
+    }
+
+    // The outcome of a choice if it's ready and still valid
+    private Outcome readyOutcome(int choiceIdx) throws Exception {
+        if (choiceIdx < 0 || choiceIdx >= outcomes.size()) return null;
+
+        Future<Outcome> future = outcomes.get(choiceIdx);
+
+        if (!future.isDone() || future.isCancelled()) return null;
+        if (story.getState().getFingerprint() != fingerprint) return null;
+
+        try {
+            return future.get();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * The first line of a choice, or null if it isn't worked out yet or is no
+     * longer valid.
+     */
+    public String getPrefetchedText(int choiceIdx) throws Exception {
+        Outcome outcome = readyOutcome(choiceIdx);
+
+        return outcome == null ? null : outcome.text;
+    }
+
+    /**
+     * Tags of the first line of a choice, or null if it isn't worked out yet or
+     * is no longer valid.
+     */
+    public List<String> getPrefetchedTags(int choiceIdx) throws Exception {
+        Outcome outcome = readyOutcome(choiceIdx);
+
+        return outcome == null ? null : outcome.tags;
+    }
+
+    /**
+     * Chooses a choice and continues one line, like calling
+     * story.chooseChoiceIndex() and story.Continue(), but taking the prefetched
+     * state if there's one. While the story is saving on a background thread
+     * the choice is always played, since the state can't be replaced then.
+     *
+     * @return The line of text content.
+     */
+    public String chooseChoiceIndex(int choiceIdx) throws Exception {
+        Outcome outcome = story.hasVariableObservers() || story.isAsyncSaving() ? null : readyOutcome(choiceIdx);
+
+        cancel();
+
+        if (outcome != null) {
+            story.adoptChoiceOutcome(choiceIdx, outcome.stateJson);
+            return story.getCurrentText();
+        }
+
+        story.chooseChoiceIndex(choiceIdx);
+        return story.canContinue() ? story.Continue() : story.getCurrentText();
+    }
+
+    /**
+     * Cancels the choices still being worked out and forgets the ones that
+     * are ready.
+     */
+    public void cancel() {
+        for (Future<Outcome> future : outcomes) future.cancel(false);
+
+        outcomes.clear();
+    }
+}
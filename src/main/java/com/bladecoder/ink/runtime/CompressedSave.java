@@ -0,0 +1,160 @@
+package com.bladecoder.ink.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compressed form of the JSON save state: a small header followed by a raw
+ * deflate stream of the JSON text. The deflater is primed with a preset
+ * dictionary built deterministically from the story itself (container paths,
+ * global variable names and the keys of the save format), so that even small
+ * saves, which are mostly paths and keys, compress well.
+ *
+ * The header holds the Adler-32 of the dictionary, so a save can only be
+ * loaded by a story that builds the same dictionary.
+ */
+class CompressedSave {
+    private static final int MAGIC = 0x494E4B5A; // "INKZ"
+
+    // Deflate can only refer back 32K, so there's no point in a longer dictionary
+    private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    // The skeleton of a save, with the keys in the order they're written
+    private static final String[] SAVE_KEYS = {
+        "{\"text\":\"",
+        "\",\"index\":",
+        ",\"originalChoicePath\":\"",
+        "\",\"originalThreadIndex\":",
+        ",\"targetPath\":\"",
+        "\",\"tags\":[",
+        "{\"^->\":\"",
+        "{\"^var\":\"",
+        "{\"list\":{",
+        "\"^",
+        "\"\\n\"",
+        "{\"flows\":{\"" + StoryState.kDefaultFlowName + "\":{\"callstack\":{\"threads\":[{\"callstack\":[{\"cPath\":\"",
+        "\",\"idx\":0,\"exp\":false,\"type\":0}],\"threadIndex\":0,\"previousContentObject\":\"",
+        "\"}],\"threadCounter\":0},\"outputStream\":[],\"choiceThreads\":{},\"currentChoices\":[]}},"
+                + "\"currentFlowName\":\"" + StoryState.kDefaultFlowName + "\",\"variablesState\":{},"
+                + "\"evalStack\":[],\"currentDivertTarget\":\"\",\"visitCounts\":{},\"turnIndices\":{},"
+                + "\"turnIdx\":0,\"storySeed\":0,\"previousRandom\":0,\"inkSaveVersion\":"
+                + StoryState.kInkSaveStateVersion + ",\"inkFormatVersion\":" + Story.inkVersionCurrent + "}"
+    };
+
+    static byte[] buildDictionary(Story story) throws Exception {
+        // Paths of counted or named containers are the ones that show up in visit
+        // counts, turn indices and choices, so they go last, where deflate finds
+        // them the cheapest and they are never cut off by the size limit.
+        TreeSet<String> otherPaths = new TreeSet<>();
+        TreeSet<String> countedPaths = new TreeSet<>();
+        collectPaths(story.getMainContentContainer(), otherPaths, countedPaths);
+        otherPaths.removeAll(countedPaths);
+
+        TreeSet<String> globals = new TreeSet<>();
+        for (String name : story.getVariablesState()) globals.add(name);
+
+        StringBuilder sb = new StringBuilder();
+
+        for (String path : otherPaths) sb.append('"').append(path).append('"');
+        for (String name : globals) sb.append('"').append(name).append("\":");
+        for (String path : countedPaths) sb.append('"').append(path).append("\":");
+        for (String key : SAVE_KEYS) sb.append(key);
+
+        byte[] dictionary = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        if (dictionary.length > MAX_DICTIONARY_SIZE) {
+            byte[] truncated = new byte[MAX_DICTIONARY_SIZE];
+            System.arraycopy(dictionary, dictionary.length - MAX_DICTIONARY_SIZE, truncated, 0, MAX_DICTIONARY_SIZE);
+            dictionary = truncated;
+        }
+
+        return dictionary;
+    }
+
+    private static void collectPaths(Container container, TreeSet<String> otherPaths, TreeSet<String> countedPaths) {
+        String path = container.getPath().getComponentsString();
+
+        if (container.getCountFlags() != 0 || container.hasValidName()) countedPaths.add(path);
+        else otherPaths.add(path);
+
+        List<Container> children = new ArrayList<>();
+
+        for (RTObject c : container.getContent()) {
+            if (c instanceof Container) children.add((Container) c);
+        }
+
+        for (RTObject c : container.getNamedOnlyContent().values()) {
+            if (c instanceof Container) children.add((Container) c);
+        }
+
+        for (Container child : children) collectPaths(child, otherPaths, countedPaths);
+    }
+
+    static int dictionaryId(byte[] dictionary) {
+        Adler32 adler = new Adler32();
+        adler.update(dictionary, 0, dictionary.length);
+        return (int) adler.getValue();
+    }
+
+    static void write(StoryState state, OutputStream stream) throws Exception {
+        byte[] dictionary = state.getStory().getSaveDictionary();
+
+        DataOutputStream header = new DataOutputStream(stream);
+        header.writeInt(MAGIC);
+        header.writeInt(dictionaryId(dictionary));
+        header.flush();
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+
+        try {
+            deflater.setDictionary(dictionary);
+
+            DeflaterOutputStream deflaterStream = new DeflaterOutputStream(stream, deflater);
+            state.toJson(deflaterStream);
+            deflaterStream.finish();
+            deflaterStream.flush();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] write(StoryState state) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(state, bytes);
+        return bytes.toByteArray();
+    }
+
+    static void load(StoryState state, InputStream stream) throws Exception {
+        byte[] dictionary = state.getStory().getSaveDictionary();
+
+        DataInputStream header = new DataInputStream(stream);
+
+        if (header.readInt() != MAGIC) throw new Exception("Not a compressed ink save, can't load.");
+
+        if (header.readInt() != dictionaryId(dictionary)) {
+            throw new Exception(
+                    "Compressed ink save was made for a different version of the story (dictionary mismatch), so can't load.");
+        }
+
+        Inflater inflater = new Inflater(true);
+
+        try {
+            inflater.setDictionary(dictionary);
+            state.loadJson(new InflaterInputStream(stream, inflater));
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -16,11 +16,28 @@ public class Container extends RTObject implements INamedContent {
     private boolean turnIndexShouldBeCounted;
     private boolean countingAtStartOnly;
 
+    // Where the counts of this container start in the arrays of a
+    // CoverageCollector, or -1 if coverage isn't being collected
+    int coverageOffset = -1;
+
+    // Fingerprint.key() of the path, worked out on the first visit
+    private long pathKeyHash;
+    private boolean pathKeyHashed;
+
     public Container() {
         content = new ArrayList<>();
         setNamedContent(new HashMap<>());
     }
 
+    long getPathKeyHash() {
+        if (!pathKeyHashed) {
+            pathKeyHash = Fingerprint.key(getPath().toString());
+            pathKeyHashed = true;
+        }
+
+        return pathKeyHash;
+    }
+
     @Override
     public String getName() {
         return name;
@@ -0,0 +1,214 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Counts how many times each piece of content of a story is run, over any
+ * number of sessions, to find the knots players reach (or never reach) and
+ * the content run the most. To use:
+ *
+ * CoverageCollector coverage = new CoverageCollector();
+ *
+ * story.startCoverage(coverage);
+ *
+ * (play the story)
+ *
+ * story.endCoverage();
+ *
+ * String report = coverage.toJson();
+ *
+ * While it's played, each story counts into its own array, which is added to
+ * the collector when the story ends its session or calls flushCoverage(). So
+ * a collector can be shared by stories running on many threads, as long as
+ * they were all created from the same JSON.
+ */
+public class CoverageCollector {
+    // Containers in a fixed order, and where their counts start
+    private String[] paths;
+    private int[] offsets;
+    private boolean[] hasOwnContent;
+    private final HashMap<String, Integer> containerIndices = new HashMap<>();
+
+    // By container and content index
+    private long[] counts;
+    private DebugMetadata[] debugMetadata;
+
+    private int sessions;
+
+    /**
+     * Sets up the counting for a story's containers and returns the array to
+     * count into.
+     */
+    synchronized int[] startSession(Container mainContentContainer) throws Exception {
+        List<Container> containers = new ArrayList<>();
+        addContainers(mainContentContainer, containers);
+
+        if (paths == null) {
+            paths = new String[containers.size()];
+            offsets = new int[containers.size() + 1];
+            hasOwnContent = new boolean[containers.size()];
+
+            for (int i = 0; i < containers.size(); i++) {
+                paths[i] = containers.get(i).getPath().toString();
+                offsets[i + 1] = offsets[i] + containers.get(i).getContent().size();
+                containerIndices.put(paths[i], i);
+            }
+
+            counts = new long[offsets[containers.size()]];
+            debugMetadata = new DebugMetadata[counts.length];
+
+            for (int i = 0; i < containers.size(); i++) {
+                List<RTObject> content = containers.get(i).getContent();
+                for (int c = 0; c < content.size(); c++) {
+                    debugMetadata[offsets[i] + c] = content.get(c).getDebugMetadata();
+                    if (!(content.get(c) instanceof Container)) hasOwnContent[i] = true;
+                }
+            }
+        } else if (containers.size() != paths.length) {
+            throw new Exception("Coverage is being collected for a different story");
+        }
+
+        for (int i = 0; i < containers.size(); i++) {
+            if (containers.get(i).getContent().size() != offsets[i + 1] - offsets[i])
+                throw new Exception("Coverage is being collected for a different story");
+
+            containers.get(i).coverageOffset = offsets[i];
+        }
+
+        sessions++;
+
+        return new int[counts.length];
+    }
+
+    // Depth first, with the named-only content (knots, stitches...) by name,
+    // so every story from the same JSON gets the same order
+    private static void addContainers(Container container, List<Container> containers) {
+        containers.add(container);
+
+        for (RTObject c : container.getContent()) {
+            if (c instanceof Container) addContainers((Container) c, containers);
+        }
+
+        HashMap<String, RTObject> namedOnly = container.getNamedOnlyContent();
+        List<String> names = new ArrayList<>(namedOnly.keySet());
+        Collections.sort(names);
+
+        for (String name : names) {
+            RTObject c = namedOnly.get(name);
+            if (c instanceof Container) addContainers((Container) c, containers);
+        }
+    }
+
+    synchronized void add(int[] sessionCounts) {
+        for (int i = 0; i < counts.length; i++) counts[i] += sessionCounts[i];
+    }
+
+    /**
+     * Number of sessions started with Story.startCoverage().
+     */
+    public synchronized int getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Times the content at the index of a container was run.
+     */
+    public synchronized long getCount(String containerPath, int index) {
+        Integer i = containerIndices.get(containerPath);
+
+        if (i == null || index < 0 || offsets[i] + index >= offsets[i + 1]) return 0;
+
+        return counts[offsets[i] + index];
+    }
+
+    /**
+     * Steps run in a container, not counting the containers inside it.
+     */
+    public synchronized long getSteps(String containerPath) {
+        Integer i = containerIndices.get(containerPath);
+
+        return i == null ? 0 : steps(i);
+    }
+
+    private long steps(int i) {
+        long steps = 0;
+        for (int c = offsets[i]; c < offsets[i + 1]; c++) steps += counts[c];
+
+        return steps;
+    }
+
+    /**
+     * Paths of the containers with content that was never run. Containers only
+     * holding other containers aren't counted, as running them steps straight
+     * into their first child.
+     */
+    public synchronized List<String> getUnreachedContainers() {
+        List<String> unreached = new ArrayList<>();
+
+        if (paths == null) return unreached;
+
+        for (int i = 0; i < paths.length; i++) {
+            if (hasOwnContent[i] && steps(i) == 0) unreached.add(paths[i]);
+        }
+
+        return unreached;
+    }
+
+    /**
+     * The counts of every container, by content index, as JSON. Where the story
+     * has debug metadata, each container has the file and line it starts at and
+     * the line of each piece of content.
+     */
+    public synchronized String toJson() throws Exception {
+        SimpleJson.Writer writer = new SimpleJson.Writer();
+
+        writer.writeObjectStart();
+        writer.writeProperty("sessions", sessions);
+
+        writer.writePropertyStart("containers");
+        writer.writeArrayStart();
+
+        for (int i = 0; paths != null && i < paths.length; i++) {
+            writer.writeObjectStart();
+            writer.writeProperty("path", paths[i]);
+
+            writer.writePropertyStart("steps");
+            writer.writeRaw(Long.toString(steps(i)));
+            writer.writePropertyEnd();
+
+            DebugMetadata dm = offsets[i + 1] > offsets[i] ? debugMetadata[offsets[i]] : null;
+
+            if (dm != null) {
+                if (dm.fileName != null) writer.writeProperty("file", dm.fileName);
+                writer.writeProperty("line", dm.startLineNumber);
+            }
+
+            writer.writePropertyStart("counts");
+            writer.writeArrayStart();
+            for (int c = offsets[i]; c < offsets[i + 1]; c++) writer.writeRaw(Long.toString(counts[c]));
+            writer.writeArrayEnd();
+            writer.writePropertyEnd();
+
+            if (dm != null) {
+                writer.writePropertyStart("lines");
+                writer.writeArrayStart();
+                for (int c = offsets[i]; c < offsets[i + 1]; c++)
+                    writer.write(debugMetadata[c] != null ? debugMetadata[c].startLineNumber : 0);
+                writer.writeArrayEnd();
+                writer.writePropertyEnd();
+            }
+
+            writer.writeObjectEnd();
+        }
+
+        writer.writeArrayEnd();
+        writer.writePropertyEnd();
+
+        writer.writeObjectEnd();
+
+        return writer.toString();
+    }
+}
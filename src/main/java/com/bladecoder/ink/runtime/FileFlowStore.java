@@ -0,0 +1,53 @@
+package com.bladecoder.ink.runtime;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * FlowStore keeping evicted flows as files in a directory, one file per flow.
+ * Keys have a random part for each process, so a directory can be shared by
+ * processes and kept across restarts.
+ */
+public class FileFlowStore implements FlowStore {
+    private final Path directory;
+
+    /**
+     * Stores flows in a new temporary directory.
+     */
+    public FileFlowStore() throws Exception {
+        this(Files.createTempDirectory("ink-flows").toFile());
+    }
+
+    public FileFlowStore(File directory) throws Exception {
+        this.directory = Files.createDirectories(directory.toPath());
+    }
+
+    @Override
+    public void put(String key, byte[] data) throws Exception {
+        Files.write(fileFor(key), data);
+    }
+
+    @Override
+    public byte[] get(String key) throws Exception {
+        try {
+            return Files.readAllBytes(fileFor(key));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void remove(String key) throws Exception {
+        Files.deleteIfExists(fileFor(key));
+    }
+
+    public File getDirectory() {
+        return directory.toFile();
+    }
+
+    private Path fileFor(String key) {
+        return directory.resolve(key + ".json");
+    }
+}
@@ -0,0 +1,142 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Hash functions for StoryState.getFingerprint().
+ *
+ * Maps are hashed as the sum of the hashes of their entries, so the result
+ * doesn't depend on iteration order and can be kept up to date as single
+ * entries change: add the new entry's hash and subtract the old one's.
+ * Everything is hashed by value (paths, names, text), never by identity, so
+ * states of different Story instances for the same JSON can be compared.
+ * Strings go through the 64-bit mix char by char, since String.hashCode()
+ * only has 32 bits and is easy to collide ("Aa" and "BB").
+ */
+final class Fingerprint {
+    private static final long K = 0x9E3779B97F4A7C15L;
+
+    private Fingerprint() {}
+
+    // SplitMix64 finaliser
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    static long combine(long h, long value) {
+        return mix(h * K + value);
+    }
+
+    // Hash of a map key. Containers keep the one of their path, so counting
+    // visits doesn't hash the path string every time.
+    static long key(String key) {
+        return mix(string(key));
+    }
+
+    static long entry(String key, long valueHash) {
+        return mix(key(key) + valueHash);
+    }
+
+    static long entry(String key, Integer value) {
+        return value == null ? 0 : entry(key, value.longValue());
+    }
+
+    static long entry(long keyHash, Integer value) {
+        return value == null ? 0 : mix(keyHash + value.longValue());
+    }
+
+    static long entry(String key, RTObject value) {
+        return value == null ? 0 : entry(key, value(value));
+    }
+
+    static long value(RTObject obj) {
+        if (obj == null) return 0;
+
+        if (obj instanceof VariablePointerValue) {
+            VariablePointerValue pointer = (VariablePointerValue) obj;
+            return combine(string(pointer.getVariableName()), pointer.getContextIndex());
+        }
+
+        if (obj instanceof AbstractValue) {
+            AbstractValue val = (AbstractValue) obj;
+            Object valueObject = val.getValueObject();
+            return combine(val.getValueType().ordinal(), valueObject(valueObject));
+        }
+
+        return string(obj.getClass().getName());
+    }
+
+    private static long valueObject(Object valueObject) {
+        if (valueObject == null) return 0;
+
+        if (valueObject instanceof String) return string((String) valueObject);
+
+        if (valueObject instanceof Path) return path((Path) valueObject);
+
+        if (valueObject instanceof InkList) return list((InkList) valueObject);
+
+        // Numbers and booleans: hashCode() is already their value
+        return valueObject.hashCode();
+    }
+
+    static long list(InkList list) {
+        long h = 0;
+
+        for (Entry<InkListItem, Integer> e : list.entrySet()) {
+            InkListItem item = e.getKey();
+            h += combine(combine(string(item.getOriginName()), string(item.getItemName())), e.getValue());
+        }
+
+        return h;
+    }
+
+    static long values(List<RTObject> list) {
+        long h = list.size();
+
+        for (RTObject obj : list) h = combine(h, value(obj));
+
+        return h;
+    }
+
+    static long intMap(Map<String, Integer> map) {
+        long h = 0;
+
+        for (Entry<String, Integer> e : map.entrySet()) h += entry(e.getKey(), e.getValue());
+
+        return h;
+    }
+
+    static long objMap(Map<String, RTObject> map) {
+        long h = 0;
+
+        if (map != null) {
+            for (Entry<String, RTObject> e : map.entrySet()) h += entry(e.getKey(), e.getValue());
+        }
+
+        return h;
+    }
+
+    static long pointer(Pointer p) {
+        if (p.isNull()) return 0;
+
+        return combine(path(p.container.getPath()), p.index);
+    }
+
+    static long path(Path path) {
+        return path == null ? 0 : string(path.toString());
+    }
+
+    static long string(String s) {
+        if (s == null) return 0;
+
+        long h = s.length() + 1;
+
+        for (int i = 0; i < s.length(); i++) h = combine(h, s.charAt(i));
+
+        return h;
+    }
+}
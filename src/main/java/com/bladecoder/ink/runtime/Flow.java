@@ -1,9 +1,16 @@
 package com.bladecoder.ink.runtime;
 
 import com.bladecoder.ink.runtime.SimpleJson.Writer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Flow {
     public String name;
@@ -11,6 +18,36 @@ public class Flow {
     public List<RTObject> outputStream;
     public List<Choice> currentChoices;
 
+    // Flows other than the current one in a loaded save are kept serialised (as
+    // JSON text, or as the parsed json object) until they are first switched to.
+    // Flows evicted by the flow cache are kept the same way, in a FlowStore.
+    // While unloaded, callStack, outputStream and currentChoices are null.
+    private Object unloadedJson;
+
+    // Keys of spilled flows. The random part keeps them from being reused by
+    // another process, or after a restart, with the same store directory.
+    private static final String spillKeyPrefix = "flow-" + UUID.randomUUID() + "-";
+    private static final AtomicLong spillCounter = new AtomicLong();
+
+    // Serialised form of a flow evicted to a FlowStore, see Story.setFlowCache
+    static class Spilled {
+        final FlowStore store;
+        final String key;
+
+        Spilled(FlowStore store, String key) {
+            this.store = store;
+            this.key = key;
+        }
+
+        byte[] getData(String flowName) throws Exception {
+            byte[] data = store.get(key);
+
+            if (data == null) throw new Exception("Flow '" + flowName + "' couldn't be found in the flow store");
+
+            return data;
+        }
+    }
+
     public Flow(String name, Story story) {
         this.name = name;
         this.callStack = new CallStack(story);
@@ -32,7 +69,94 @@ public class Flow {
         loadFlowChoiceThreads((HashMap<String, Object>) jChoiceThreadsObj, story);
     }
 
+    Flow(String name, Story story, SimpleJson.StreamReader reader) throws Exception {
+        this(name, story);
+
+        HashMap<String, CallStack.Thread> choiceThreads = null;
+
+        reader.readObjectStart();
+        while (reader.nextProperty()) {
+            String key = reader.readPropertyName();
+
+            if (key.equals("callstack")) callStack.setJsonToken(reader, story);
+            else if (key.equals("outputStream")) outputStream = Json.readRuntimeObjList(reader);
+            else if (key.equals("choiceThreads")) choiceThreads = readChoiceThreads(reader, story);
+            else if (key.equals("currentChoices")) currentChoices = Json.readRuntimeObjList(reader);
+            else reader.skipValue();
+        }
+
+        loadFlowChoiceThreads(choiceThreads);
+    }
+
+    Flow(String name, Object unloadedJson) {
+        this.name = name;
+        this.unloadedJson = unloadedJson;
+    }
+
+    boolean isLoaded() {
+        return unloadedJson == null;
+    }
+
+    /**
+     * Returns this flow if it's loaded, or else a new flow loaded from its
+     * serialised form.
+     */
+    @SuppressWarnings("unchecked")
+    Flow load(Story story) throws Exception {
+        if (unloadedJson == null) return this;
+
+        if (unloadedJson instanceof String) {
+            StringReader reader = new StringReader((String) unloadedJson);
+            return new Flow(name, story, new SimpleJson.StreamReader(reader));
+        } else if (unloadedJson instanceof Spilled) {
+            Spilled spilled = (Spilled) unloadedJson;
+            InputStreamReader reader = new InputStreamReader(
+                    new ByteArrayInputStream(spilled.getData(name)), StandardCharsets.UTF_8);
+            Flow flow = new Flow(name, story, new SimpleJson.StreamReader(reader));
+            spilled.store.remove(spilled.key);
+            return flow;
+        }
+
+        return new Flow(name, story, (HashMap<String, Object>) unloadedJson);
+    }
+
+    /**
+     * Serialises this flow to the store, returning the unloaded flow that takes
+     * its place.
+     */
+    Flow spill(FlowStore store) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeJson(new SimpleJson.Writer(bytes));
+
+        String key = spillKeyPrefix + spillCounter.incrementAndGet();
+        store.put(key, bytes.toByteArray());
+
+        return new Flow(name, new Spilled(store, key));
+    }
+
+    /**
+     * Frees the store entry of a spilled flow that won't be used any more.
+     */
+    void discard() throws Exception {
+        if (unloadedJson instanceof Spilled) {
+            Spilled spilled = (Spilled) unloadedJson;
+            spilled.store.remove(spilled.key);
+        }
+    }
+
     public void writeJson(SimpleJson.Writer writer) throws Exception {
+        // Never loaded, so it can't have changed: write it back as it was read
+        if (unloadedJson instanceof String) {
+            writer.writeRaw((String) unloadedJson);
+            return;
+        } else if (unloadedJson instanceof Spilled) {
+            writer.writeRaw(new String(((Spilled) unloadedJson).getData(name), StandardCharsets.UTF_8));
+            return;
+        } else if (unloadedJson != null) {
+            writer.writeToken(unloadedJson);
+            return;
+        }
+
         writer.writeObjectStart();
 
         writer.writeProperty("callstack", new SimpleJson.InnerWriter() {
@@ -100,4 +224,39 @@ public class Flow {
             }
         }
     }
+
+    // Streamed counterpart of the above: choiceThreads have already been read
+    // into threads, keyed by their original thread index.
+    void loadFlowChoiceThreads(HashMap<String, CallStack.Thread> savedChoiceThreads) throws Exception {
+        for (Choice choice : currentChoices) {
+            CallStack.Thread foundActiveThread = callStack.getThreadWithIndex(choice.originalThreadIndex);
+            if (foundActiveThread != null) {
+                choice.setThreadAtGeneration(foundActiveThread.copy());
+            } else {
+                CallStack.Thread savedChoiceThread = savedChoiceThreads != null
+                        ? savedChoiceThreads.get(Integer.toString(choice.originalThreadIndex))
+                        : null;
+
+                if (savedChoiceThread == null)
+                    throw new Exception("When loading state, the thread for choice '" + choice.getText()
+                            + "' couldn't be found.");
+
+                // Several choices may have been generated on the same thread
+                choice.setThreadAtGeneration(savedChoiceThread.copy());
+            }
+        }
+    }
+
+    static HashMap<String, CallStack.Thread> readChoiceThreads(SimpleJson.StreamReader reader, Story story)
+            throws Exception {
+        HashMap<String, CallStack.Thread> choiceThreads = new HashMap<>();
+
+        reader.readObjectStart();
+        while (reader.nextProperty()) {
+            String key = reader.readPropertyName();
+            choiceThreads.put(key, new CallStack.Thread(reader, story));
+        }
+
+        return choiceThreads;
+    }
 }
@@ -0,0 +1,363 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Continues several flows of a story one line each, in parallel, with the same
+ * result as switching to each flow in turn and calling Continue().
+ *
+ * Flows share the globals, visit counts, turn indices and random seed, so it's
+ * done optimistically: the state is saved, and worker threads (each with its
+ * own Story) continue every flow from that same saved state, logging what
+ * shared state the line reads and writes. The results are then applied to the
+ * story in the order the flows were given. A flow that read something written
+ * by a flow before it worked from stale values, so it's continued again on the
+ * story itself instead. Writes that don't depend on what they overwrite are
+ * merged in order: the last flow to set a global wins, and visit counts add
+ * up.
+ *
+ * External functions are never called by the workers: a line that calls one is
+ * continued on the story itself, on the calling thread. Neither is stepping
+ * done in parallel while the story is recording a ReplayLog or has variable
+ * observers, which expect to see the lines being run one after another.
+ */
+public class FlowStepper {
+    private final Story story;
+    private final String json;
+    private final ExecutorService executor;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    // Stories of the executor threads
+    private final ThreadLocal<Worker> worker = new ThreadLocal<>();
+
+    // A line continued by a worker
+    private static class Outcome {
+        final String flowJson;
+        final String text;
+        final StateAccessLog log;
+
+        // Final values of what was written. Visit counts are the increments.
+        final String globalsJson;
+        final HashMap<String, Integer> visitCountIncrements = new HashMap<>();
+        final HashMap<String, Integer> turnIndices = new HashMap<>();
+        int seed;
+        int previousRandom;
+
+        Outcome(String flowJson, String text, StateAccessLog log, String globalsJson) {
+            this.flowJson = flowJson;
+            this.text = text;
+            this.log = log;
+            this.globalsJson = globalsJson;
+        }
+    }
+
+    /**
+     * @param story    The story played by the game.
+     * @param json     The JSON the story was created from.
+     * @param executor Where flows are continued. It's left running.
+     */
+    public FlowStepper(Story story, String json, ExecutorService executor) {
+        this.story = story;
+        this.json = json;
+        this.executor = executor;
+    }
+
+    /**
+     * Number of tasks the flows are split into. Defaults to the number of
+     * processors.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Continues each of the flows one line, in order, like calling
+     * story.switchFlow() and story.Continue() for each of them, and then
+     * switches back to the current flow. Flows that don't exist yet are
+     * created. Not while the story is saving on a background thread.
+     *
+     * @return The line of each flow, or null for flows that couldn't continue.
+     */
+    public List<String> step(List<String> flowNames) throws Exception {
+        if (story.isAsyncSaving())
+            throw new Exception("Story is in background saving mode, can't step flows");
+
+        if (new HashSet<>(flowNames).size() != flowNames.size())
+            throw new Exception("Each flow can only be stepped once");
+
+        String currentFlowName = story.getCurrentFlowName();
+
+        if (story.isRecording() || story.hasVariableObservers() || parallelism < 2 || flowNames.size() < 2) {
+            List<String> lines = new ArrayList<>(flowNames.size());
+            for (String flowName : flowNames) lines.add(stepOnStory(flowName, null));
+
+            story.switchFlow(currentFlowName);
+            return lines;
+        }
+
+        final String saved = story.getState().toJson();
+
+        int tasks = Math.min(parallelism, flowNames.size());
+        List<Future<List<Outcome>>> futures = new ArrayList<>(tasks);
+
+        for (int i = 0; i < tasks; i++) {
+            final List<String> chunk =
+                    flowNames.subList(i * flowNames.size() / tasks, (i + 1) * flowNames.size() / tasks);
+
+            futures.add(executor.submit(new Callable<List<Outcome>>() {
+                @Override
+                public List<Outcome> call() throws Exception {
+                    return play(saved, chunk);
+                }
+            }));
+        }
+
+        List<Outcome> outcomes = new ArrayList<>(flowNames.size());
+
+        for (Future<List<Outcome>> future : futures) {
+            try {
+                outcomes.addAll(future.get());
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        // Everything written by the flows applied so far
+        StateAccessLog written = new StateAccessLog();
+        List<String> lines = new ArrayList<>(flowNames.size());
+
+        for (int i = 0; i < flowNames.size(); i++) {
+            Outcome outcome = outcomes.get(i);
+
+            if (outcome == null || outcome.log.readAnyWrittenBy(written)) {
+                lines.add(stepOnStory(flowNames.get(i), written));
+            } else {
+                apply(flowNames.get(i), outcome);
+                written.addWrites(outcome.log);
+                lines.add(outcome.text);
+            }
+        }
+
+        story.switchFlow(currentFlowName);
+
+        return lines;
+    }
+
+    // Steps a flow on the story itself, adding what it writes to the log
+    private String stepOnStory(String flowName, StateAccessLog written) throws Exception {
+        story.switchFlow(flowName);
+
+        if (!story.canContinue()) return null;
+
+        if (written == null) return story.Continue();
+
+        StateAccessLog log = new StateAccessLog();
+        VariablesState variablesState = story.getState().getVariablesState();
+
+        variablesState.setAccessLog(log);
+        try {
+            return story.Continue();
+        } finally {
+            variablesState.setAccessLog(null);
+            written.addWrites(log);
+        }
+    }
+
+    private void apply(String flowName, Outcome outcome) throws Exception {
+        StoryState state = story.getState();
+        VariablesState variablesState = state.getVariablesState();
+
+        if (!outcome.log.globalsWritten.isEmpty()) {
+            for (Entry<String, Object> e : SimpleJson.textToDictionary(outcome.globalsJson).entrySet())
+                variablesState.setGlobal(e.getKey(), Json.jTokenToRuntimeObject(e.getValue()));
+        }
+
+        for (Entry<String, Integer> e : outcome.visitCountIncrements.entrySet()) {
+            Integer count = state.getCount(e.getKey(), true);
+            state.setCount(e.getKey(), (count != null ? count : 0) + e.getValue(), true);
+        }
+
+        for (Entry<String, Integer> e : outcome.turnIndices.entrySet()) state.setCount(e.getKey(), e.getValue(), false);
+
+        if (outcome.log.seedWritten) state.setStorySeed(outcome.seed);
+        if (outcome.log.previousRandomWritten) state.setPreviousRandom(outcome.previousRandom);
+
+        state.replaceFlow(flowName, outcome.flowJson);
+    }
+
+    // Story played by one executor thread
+    private class Worker {
+        final Story story;
+        final List<String> errors = new ArrayList<>();
+
+        // Saved state the story is in, apart from the flows stepped from it
+        String loaded;
+
+        Worker() throws Exception {
+            story = new Story(json);
+            story.onError = new Error.ErrorHandler() {
+                @Override
+                public void error(String message, Error.ErrorType type) {
+                    errors.add(message);
+                }
+            };
+
+            // Externals are left unbound, so that calling one is an error. This
+            // only checks they're bound on the first Continue, so do it now.
+            try {
+                story.validateExternalBindings();
+            } catch (StoryException e) {
+                // Some are missing
+            }
+        }
+    }
+
+    // Continues each flow from the saved state. Outcomes are null for the flows
+    // that have to be continued on the story itself.
+    private List<Outcome> play(String saved, List<String> flowNames) throws Exception {
+        List<Outcome> outcomes = new ArrayList<>(flowNames.size());
+        Worker w = worker.get();
+
+        for (String flowName : flowNames) {
+            Outcome outcome = null;
+
+            try {
+                if (w == null) {
+                    w = new Worker();
+                    worker.set(w);
+                }
+
+                if (w.loaded != saved) {
+                    w.story.getState().loadJson(saved);
+                    w.loaded = saved;
+                }
+
+                outcome = play(w, flowName);
+            } catch (Exception e) {
+                // Left in the middle of an evaluation
+                worker.remove();
+                w = null;
+            }
+
+            outcomes.add(outcome);
+        }
+
+        return outcomes;
+    }
+
+    private Outcome play(Worker w, String flowName) throws Exception {
+        VariablesState variablesState = w.story.getState().getVariablesState();
+        StateAccessLog log = new StateAccessLog();
+        String text = null;
+
+        w.errors.clear();
+
+        variablesState.setAccessLog(log);
+        try {
+            w.story.switchFlow(flowName);
+            if (w.story.canContinue()) text = w.story.Continue();
+        } finally {
+            variablesState.setAccessLog(null);
+        }
+
+        // Taken after continuing, since snapshots replace the story's state
+        StoryState state = w.story.getState();
+
+        if (!w.errors.isEmpty() || !state.getEvaluationStack().isEmpty()) {
+            w.loaded = null;
+            return null;
+        }
+
+        // Collect the final values and put back the saved ones, so the next flow
+        // starts from the saved state too. Writes that leave the saved value
+        // (like the ones undone by the story rewinding to a snapshot) are kept
+        // as reads instead: they only make a difference if an earlier flow
+        // wrote something else.
+        HashMap<String, RTObject> globals = new HashMap<>();
+
+        for (Iterator<Entry<String, RTObject>> it = log.globalsWritten.entrySet().iterator(); it.hasNext(); ) {
+            Entry<String, RTObject> e = it.next();
+            RTObject value = variablesState.getRawVariableWithName(e.getKey(), 0);
+
+            if (sameValue(value, e.getValue())) {
+                log.readGlobal(e.getKey());
+                it.remove();
+            } else {
+                globals.put(e.getKey(), value);
+                variablesState.setGlobal(e.getKey(), e.getValue());
+            }
+        }
+
+        SimpleJson.Writer writer = new SimpleJson.Writer();
+        Json.writeDictionaryRuntimeObjs(writer, globals);
+
+        Outcome outcome = new Outcome(state.currentFlowToJson(), text, log, writer.toString());
+
+        for (Iterator<Entry<String, Integer>> it = log.visitCountsWritten.entrySet().iterator(); it.hasNext(); ) {
+            Entry<String, Integer> e = it.next();
+            int oldCount = e.getValue() != null ? e.getValue() : 0;
+            Integer count = state.getCount(e.getKey(), true);
+
+            if (count == null || count == oldCount) {
+                it.remove();
+            } else {
+                outcome.visitCountIncrements.put(e.getKey(), count - oldCount);
+                state.setCount(e.getKey(), e.getValue(), true);
+            }
+        }
+
+        for (Iterator<Entry<String, Integer>> it = log.turnIndicesWritten.entrySet().iterator(); it.hasNext(); ) {
+            Entry<String, Integer> e = it.next();
+            Integer index = state.getCount(e.getKey(), false);
+
+            // All flows set the current turn index, so an undone write can be
+            // dropped
+            if (index == null || index.equals(e.getValue())) {
+                it.remove();
+            } else {
+                outcome.turnIndices.put(e.getKey(), index);
+                state.setCount(e.getKey(), e.getValue(), false);
+            }
+        }
+
+        if (log.seedWritten) {
+            outcome.seed = state.getStorySeed();
+            state.setStorySeed(log.oldSeed);
+
+            if (outcome.seed == log.oldSeed) {
+                log.seedWritten = false;
+                log.seedRead = true;
+            }
+        }
+
+        if (log.previousRandomWritten) {
+            outcome.previousRandom = state.getPreviousRandom();
+            state.setPreviousRandom(log.oldPreviousRandom);
+
+            if (outcome.previousRandom == log.oldPreviousRandom) {
+                log.previousRandomWritten = false;
+                log.previousRandomRead = true;
+            }
+        }
+
+        return outcome;
+    }
+
+    private static boolean sameValue(RTObject a, RTObject b) {
+        if (a == b) return true;
+
+        return a instanceof Value<?>
+                && b != null
+                && a.getClass() == b.getClass()
+                && ((Value<?>) a).getValueObject().equals(((Value<?>) b).getValueObject());
+    }
+}
@@ -0,0 +1,17 @@
+package com.bladecoder.ink.runtime;
+
+/**
+ * Backing store for flows evicted from memory by the flow cache, see
+ * Story.setFlowCache. Each entry holds a flow serialised as JSON, under an
+ * opaque key that is safe to use as a file name.
+ */
+public interface FlowStore {
+    void put(String key, byte[] data) throws Exception;
+
+    /**
+     * Returns the data stored under the key, or null if there isn't any.
+     */
+    byte[] get(String key) throws Exception;
+
+    void remove(String key) throws Exception;
+}
@@ -0,0 +1,31 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FlowStore keeping evicted flows as bytes in memory. Serialised flows are much
+ * smaller than loaded ones, since they don't hold any runtime objects. Can be
+ * shared between stories.
+ */
+public class InMemoryFlowStore implements FlowStore {
+    private final ConcurrentHashMap<String, byte[]> flows = new ConcurrentHashMap<>();
+
+    @Override
+    public void put(String key, byte[] data) {
+        flows.put(key, data);
+    }
+
+    @Override
+    public byte[] get(String key) {
+        return flows.get(key);
+    }
+
+    @Override
+    public void remove(String key) {
+        flows.remove(key);
+    }
+
+    public int size() {
+        return flows.size();
+    }
+}
@@ -246,9 +246,50 @@ public class Json {
     public static HashMap<String, Integer> jObjectToIntHashMap(HashMap<String, Object> jRTObject) throws Exception {
         HashMap<String, Integer> dict = new HashMap<>(jRTObject.size());
 
+        jObjectToIntHashMap(jRTObject, dict);
+
+        return dict;
+    }
+
+    // Clears and refills an existing map
+    static void jObjectToIntHashMap(HashMap<String, Object> jRTObject, HashMap<String, Integer> dict) {
+        dict.clear();
+
         for (Entry<String, Object> keyVal : jRTObject.entrySet()) {
             dict.put(keyVal.getKey(), (Integer) keyVal.getValue());
         }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T extends RTObject> List<T> readRuntimeObjList(SimpleJson.StreamReader reader) throws Exception {
+        List<T> list = new ArrayList<>();
+
+        reader.readArrayStart();
+        while (reader.nextElement()) list.add((T) jTokenToRuntimeObject(reader.readValue()));
+
+        return list;
+    }
+
+    static HashMap<String, RTObject> readHashMapRuntimeObjs(SimpleJson.StreamReader reader) throws Exception {
+        HashMap<String, RTObject> dict = new HashMap<>();
+
+        reader.readObjectStart();
+        while (reader.nextProperty()) {
+            String key = reader.readPropertyName();
+            dict.put(key, jTokenToRuntimeObject(reader.readValue()));
+        }
+
+        return dict;
+    }
+
+    static HashMap<String, Integer> readIntHashMap(SimpleJson.StreamReader reader) throws Exception {
+        HashMap<String, Integer> dict = new HashMap<>();
+
+        reader.readObjectStart();
+        while (reader.nextProperty()) {
+            String key = reader.readPropertyName();
+            dict.put(key, reader.readInt());
+        }
 
         return dict;
     }
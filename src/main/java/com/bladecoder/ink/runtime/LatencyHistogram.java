@@ -0,0 +1,123 @@
+package com.bladecoder.ink.runtime;
+
+/**
+ * Counts latencies in nanoseconds, in buckets that grow with the value like an
+ * HDR histogram: every value is counted to within about 3%. Recording doesn't
+ * allocate, so it can be left on in servers.
+ *
+ * It isn't thread safe. Record from one thread and add() histograms together
+ * to aggregate them.
+ */
+public class LatencyHistogram {
+    // Values below 2^BITS get a bucket each. Above it, every power of two is
+    // split in 2^(BITS - 1) buckets.
+    private static final int BITS = 6;
+    private static final int HALF = 1 << (BITS - 1);
+    private static final int BUCKETS = 2 * HALF + (63 - BITS) * HALF;
+
+    private final long[] counts = new long[BUCKETS];
+
+    private long totalCount;
+    private long totalNanos;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+
+        counts[bucketIndex(nanos)]++;
+
+        totalCount++;
+        totalNanos += nanos;
+        if (nanos < min) min = nanos;
+        if (nanos > max) max = nanos;
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) counts[i] += other.counts[i];
+
+        totalCount += other.totalCount;
+        totalNanos += other.totalNanos;
+        if (other.min < min) min = other.min;
+        if (other.max > max) max = other.max;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts[i] = 0;
+
+        totalCount = 0;
+        totalNanos = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double) totalNanos / totalCount;
+    }
+
+    /**
+     * The latency that the given percentage (0 to 100) of the recorded ones
+     * are at or below, rounded up to the end of its bucket.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) return 0;
+
+        long target = (long) Math.ceil(Math.min(percentile, 100) / 100 * totalCount);
+        if (target < 1) target = 1;
+
+        long count = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts[i];
+
+            if (count >= target) return Math.min(highestValue(i), max);
+        }
+
+        return max;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < 2 * HALF) return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (BITS - 1);
+
+        return 2 * HALF + (shift - 1) * HALF + (int) (value >> shift) - HALF;
+    }
+
+    static long highestValue(int index) {
+        if (index < 2 * HALF) return index;
+
+        int shift = (index - 2 * HALF) / HALF + 1;
+        long lowest = (long) ((index - 2 * HALF) % HALF + HALF) << shift;
+
+        return lowest + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                totalCount,
+                getMean() / 1000,
+                getValueAtPercentile(50) / 1000.0,
+                getValueAtPercentile(90) / 1000.0,
+                getValueAtPercentile(99) / 1000.0,
+                getValueAtPercentile(99.9) / 1000.0,
+                max / 1000.0);
+    }
+}
@@ -33,7 +33,9 @@ public class NativeFunctionCall extends RTObject {
 
     public static final String Mod = "%";
     public static final String Multiply = "*";
-    private static HashMap<String, NativeFunctionCall> nativeFunctions;
+    // Only published once fully built, so stories can be created on several threads at once
+    private static volatile HashMap<String, NativeFunctionCall> nativeFunctions;
+    private static HashMap<String, NativeFunctionCall> nativeFunctionsBeingGenerated;
     public static final String Negate = "_"; // distinguish from "-" for
     // subtraction
     public static final String Not = "!";
@@ -80,13 +82,13 @@ public class NativeFunctionCall extends RTObject {
     }
 
     static void addOpToNativeFunc(String name, int args, ValueType valType, Object op) {
-        NativeFunctionCall nativeFunc = nativeFunctions.get(name);
+        NativeFunctionCall nativeFunc = nativeFunctionsBeingGenerated.get(name);
 
         // Operations for each data type, for a single operation (e.g. "+")
 
         if (nativeFunc == null) {
             nativeFunc = new NativeFunctionCall(name, args);
-            nativeFunctions.put(name, nativeFunc);
+            nativeFunctionsBeingGenerated.put(name, nativeFunc);
         }
 
         nativeFunc.addOpFuncForType(valType, op);
@@ -106,8 +108,17 @@ public class NativeFunctionCall extends RTObject {
     }
 
     static void generateNativeFunctionsIfNecessary() {
+        if (nativeFunctions == null) generateNativeFunctions();
+    }
+
+    // For tests: forgets the table, so that the next story builds it again
+    static synchronized void resetNativeFunctions() {
+        nativeFunctions = null;
+    }
+
+    private static synchronized void generateNativeFunctions() {
         if (nativeFunctions == null) {
-            nativeFunctions = new HashMap<>();
+            nativeFunctionsBeingGenerated = new HashMap<>();
 
             // Why no bool operations?
             // Before evaluation, all bools are coerced to ints in
@@ -618,6 +629,9 @@ public class NativeFunctionCall extends RTObject {
 
             addOpToNativeFunc(Equal, 2, ValueType.DivertTarget, divertTargetsEqual);
             addOpToNativeFunc(NotEquals, 2, ValueType.DivertTarget, divertTargetsNotEqual);
+
+            nativeFunctions = nativeFunctionsBeingGenerated;
+            nativeFunctionsBeingGenerated = null;
         }
     }
 
@@ -152,6 +152,75 @@ public class ProfileNode {
         return (int) totalMillisecs;
     }
 
+    /**
+     * The sub-tree from this node in the collapsed-stack format read by flame
+     * graph tools: a line per node with its path from here, separated by ';',
+     * and its self time in microseconds. Nodes with no self time are left out.
+     */
+    public String toCollapsedStacks() {
+        StringBuilder sb = new StringBuilder();
+
+        if (nodes != null) {
+            for (ProfileNode node : nodes.values()) node.appendCollapsedStacks(sb, "");
+        }
+
+        return sb.toString();
+    }
+
+    private void appendCollapsedStacks(StringBuilder sb, String parentStack) {
+        String stack = parentStack + (key == null || key.isEmpty() ? "(root)" : key);
+        long selfMicrosecs = Math.round(selfMillisecs * 1000);
+
+        if (selfMicrosecs > 0) {
+            sb.append(stack);
+            sb.append(' ');
+            sb.append(selfMicrosecs);
+            sb.append('\n');
+        }
+
+        if (nodes == null) return;
+
+        for (ProfileNode node : nodes.values()) node.appendCollapsedStacks(sb, stack + ";");
+    }
+
+    /**
+     * The sub-tree from this node as JSON, with the total and self time and the
+     * number of steps recorded (samples) for every node.
+     */
+    public String toJson() throws Exception {
+        SimpleJson.Writer writer = new SimpleJson.Writer();
+        writeJson(writer);
+        return writer.toString();
+    }
+
+    void writeJson(SimpleJson.Writer writer) throws Exception {
+        writer.writeObjectStart();
+
+        if (key != null) writer.writeProperty("name", key);
+
+        writer.writePropertyStart("totalMillisecs");
+        writer.write((float) totalMillisecs);
+        writer.writePropertyEnd();
+
+        writer.writePropertyStart("selfMillisecs");
+        writer.write((float) selfMillisecs);
+        writer.writePropertyEnd();
+
+        writer.writeProperty("totalSamples", totalSampleCount);
+        writer.writeProperty("selfSamples", selfSampleCount);
+
+        if (nodes != null) {
+            writer.writePropertyStart("children");
+            writer.writeArrayStart();
+            for (Entry<String, ProfileNode> keyNode : getDescendingOrderedNodes())
+                keyNode.getValue().writeJson(writer);
+            writer.writeArrayEnd();
+            writer.writePropertyEnd();
+        }
+
+        writer.writeObjectEnd();
+    }
+
     /**
      * String is a report of the sub-tree from this node, but without any of the
      * header information that's prepended by the Profiler in its Report() method.
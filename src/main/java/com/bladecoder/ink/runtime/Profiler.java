@@ -21,6 +21,12 @@ import java.util.Map.Entry;
  *
  * story.EndProfiling();
  *
+ * Logging every instruction is too slow to leave on in a game. When created
+ * with Story.startProfiling(sampleInterval, capacity), the profiler only times
+ * one in every sampleInterval steps and keeps the latest samples in fixed-size
+ * buffers, holding the callstack containers and working out their names when
+ * a report is made. The reports then cover those samples, with times scaled
+ * by the interval to estimate the time spent on all the steps.
  */
 public class Profiler {
     private Stopwatch continueWatch = new Stopwatch();
@@ -50,15 +56,70 @@ public class Profiler {
 
     private List<StepDetails> stepDetails = new ArrayList<>();
 
+    // Sampling mode. Sample i has its callstack containers (outermost first)
+    // at [i * MAX_SAMPLE_DEPTH, i * MAX_SAMPLE_DEPTH + sampleDepths[i]).
+    private static final int MAX_SAMPLE_DEPTH = 32;
+
+    private final int sampleInterval;
+    private int stepsToNextSample;
+    private boolean stepSampled = true;
+    private boolean stepRecorded;
+    private long stepStart;
+    private long snapStart;
+
+    private Container[] sampleStacks;
+    private int[] sampleDepths;
+    private RTObject[] sampleObjs;
+    private long[] sampleNanos;
+    private int sampleCount;
+    private long samplesTaken;
+
     /**
      * The root node in the hierarchical tree of recorded ink timings.
      */
     public ProfileNode getRootNode() {
-        return rootNode;
+        if (sampleStacks == null) return rootNode;
+
+        // Built from the samples kept
+        ProfileNode root = new ProfileNode();
+
+        for (int i = 0; i < sampleCount; i++) {
+            String[] stack = new String[sampleDepths[i]];
+            for (int d = 0; d < stack.length; d++) stack[d] = containerName(sampleStacks[i * MAX_SAMPLE_DEPTH + d]);
+
+            root.addSample(stack, sampleMillisecs(i));
+        }
+
+        return root;
     }
 
     Profiler() {
         rootNode = new ProfileNode();
+        sampleInterval = 1;
+    }
+
+    Profiler(int sampleInterval, int capacity) {
+        this.sampleInterval = sampleInterval;
+
+        sampleStacks = new Container[capacity * MAX_SAMPLE_DEPTH];
+        sampleDepths = new int[capacity];
+        sampleObjs = new RTObject[capacity];
+        sampleNanos = new long[capacity];
+    }
+
+    /**
+     * Steps timed between each sample. 1 when every step is recorded.
+     */
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * Number of steps sampled so far, including the ones that no longer fit in
+     * the buffers.
+     */
+    public long getSamplesTaken() {
+        return samplesTaken;
     }
 
     /**
@@ -71,11 +132,55 @@ public class Profiler {
         sb.append(String.format("TOTAL TIME: %s\n", formatMillisecs(continueTotal)));
         sb.append(String.format("SNAPSHOTTING: %s\n", formatMillisecs(snapTotal)));
         sb.append(String.format("OTHER: %s\n", formatMillisecs(continueTotal - (stepTotal + snapTotal))));
-        sb.append(rootNode.toString());
+        if (sampleStacks != null)
+            sb.append(String.format(
+                    "SAMPLED 1 IN %d STEPS, LAST %d OF %d SAMPLES:\n", sampleInterval, sampleCount, samplesTaken));
+        sb.append(getRootNode().toString());
 
         return sb.toString();
     }
 
+    /**
+     * The report as JSON: the totals and the tree of timings from
+     * ProfileNode.toJson(), under "root".
+     */
+    public String toJson() throws Exception {
+        SimpleJson.Writer writer = new SimpleJson.Writer();
+
+        writer.writeObjectStart();
+        writer.writeProperty("continues", numContinues);
+
+        writer.writePropertyStart("totalMillisecs");
+        writer.write((float) continueTotal);
+        writer.writePropertyEnd();
+
+        writer.writePropertyStart("snapshotMillisecs");
+        writer.write((float) snapTotal);
+        writer.writePropertyEnd();
+
+        writer.writePropertyStart("stepMillisecs");
+        writer.write((float) stepTotal);
+        writer.writePropertyEnd();
+
+        writer.writeProperty("sampleInterval", sampleInterval);
+
+        writer.writePropertyStart("root");
+        getRootNode().writeJson(writer);
+        writer.writePropertyEnd();
+
+        writer.writeObjectEnd();
+
+        return writer.toString();
+    }
+
+    /**
+     * The tree of timings in the collapsed-stack format read by flame graph
+     * tools. See ProfileNode.toCollapsedStacks().
+     */
+    public String collapsedStacks() {
+        return getRootNode().toCollapsedStacks();
+    }
+
     void preContinue() {
         continueWatch.reset();
         continueWatch.start();
@@ -88,12 +193,29 @@ public class Profiler {
     }
 
     void preStep() {
+        if (sampleStacks != null) {
+            stepSampled = --stepsToNextSample <= 0;
+
+            if (stepSampled) {
+                stepsToNextSample = sampleInterval;
+                stepRecorded = false;
+                stepStart = System.nanoTime();
+            }
+
+            return;
+        }
+
         currStepStack = null;
         stepWatch.reset();
         stepWatch.start();
     }
 
     void step(CallStack callstack) {
+        if (sampleStacks != null) {
+            if (stepSampled) sampleStep(callstack);
+            return;
+        }
+
         stepWatch.stop();
 
         String[] stack = new String[callstack.getElements().size()];
@@ -120,18 +242,89 @@ public class Profiler {
 
         RTObject currObj = callstack.getCurrentElement().currentPointer.resolve();
 
-        String stepType = null;
-        ControlCommand controlCommandStep = currObj instanceof ControlCommand ? (ControlCommand) currObj : null;
-        if (controlCommandStep != null)
-            stepType = controlCommandStep.getCommandType().toString() + " CC";
-        else stepType = currObj.getClass().getSimpleName();
-
-        currStepDetails = new StepDetails(stepType, currObj, 0f);
+        currStepDetails = new StepDetails(stepType(currObj), currObj, 0f);
 
         stepWatch.start();
     }
 
+    private static String stepType(RTObject obj) {
+        ControlCommand controlCommandStep = obj instanceof ControlCommand ? (ControlCommand) obj : null;
+        if (controlCommandStep != null) return controlCommandStep.getCommandType().toString() + " CC";
+        else return obj.getClass().getSimpleName();
+    }
+
+    private static String containerName(Container container) {
+        if (container == null) return "";
+
+        Path path = container.getPath();
+
+        for (int c = 0; c < path.getLength(); c++) {
+            Component comp = path.getComponent(c);
+            if (!comp.isIndex()) return comp.getName();
+        }
+
+        return "";
+    }
+
+    private double sampleMillisecs(int i) {
+        return sampleNanos[i] / 1000000.0 * sampleInterval;
+    }
+
+    // Every step, or the samples kept in sampling mode
+    private List<StepDetails> getStepDetails() {
+        if (sampleStacks == null) return stepDetails;
+
+        List<StepDetails> details = new ArrayList<>(sampleCount);
+
+        // Oldest first
+        for (int n = 0; n < sampleCount; n++) {
+            int i = (int) ((samplesTaken - sampleCount + n) % sampleDepths.length);
+            details.add(new StepDetails(stepType(sampleObjs[i]), sampleObjs[i], sampleMillisecs(i)));
+        }
+
+        return details;
+    }
+
+    private void sampleStep(CallStack callstack) {
+        long start = System.nanoTime();
+
+        // Overwrites the oldest sample once the buffers are full
+        int i = (int) (samplesTaken % sampleDepths.length);
+        List<CallStack.Element> elements = callstack.getElements();
+        int depth = Math.min(elements.size(), MAX_SAMPLE_DEPTH);
+
+        for (int d = 0; d < depth; d++)
+            sampleStacks[i * MAX_SAMPLE_DEPTH + d] = elements.get(d).currentPointer.container;
+
+        // Don't hold on to containers of a deeper sample overwritten
+        for (int d = depth; d < sampleDepths[i]; d++) sampleStacks[i * MAX_SAMPLE_DEPTH + d] = null;
+
+        sampleDepths[i] = depth;
+        sampleObjs[i] = callstack.getCurrentElement().currentPointer.resolve();
+        stepRecorded = true;
+
+        // Leave the recording out of the step time
+        stepStart += System.nanoTime() - start;
+    }
+
     void postStep() {
+        if (sampleStacks != null) {
+            if (!stepSampled) return;
+
+            long duration = System.nanoTime() - stepStart;
+            stepTotal += duration / 1000000.0 * sampleInterval;
+
+            // Steps that ended before getting to step(), like the ones that
+            // only pop the callstack, aren't kept
+            if (stepRecorded) {
+                sampleNanos[(int) (samplesTaken % sampleDepths.length)] = duration;
+                samplesTaken++;
+                sampleCount = (int) Math.min(samplesTaken, sampleDepths.length);
+            }
+
+            return;
+        }
+
         stepWatch.stop();
 
         double duration = millisecs(stepWatch);
@@ -151,21 +344,22 @@ public class Profiler {
      */
     public String stepLengthReport() {
         StringBuilder sb = new StringBuilder();
+        List<StepDetails> steps = getStepDetails();
 
-        sb.append("TOTAL: " + rootNode.getTotalMillisecs() + "ms\n");
+        sb.append("TOTAL: " + getRootNode().getTotalMillisecs() + "ms\n");
 
         // AVERAGE STEP TIMES
         HashMap<String, Double> typeToDetails = new HashMap<>();
 
         // average group by s.type
-        for (StepDetails sd : stepDetails) {
+        for (StepDetails sd : steps) {
             if (typeToDetails.containsKey(sd.type)) continue;
 
             String type = sd.type;
             double avg = 0f;
             float num = 0;
 
-            for (StepDetails sd2 : stepDetails) {
+            for (StepDetails sd2 : steps) {
                 if (type.equals(sd2.type)) {
                     num++;
                     avg += sd2.time;
@@ -204,13 +398,13 @@ public class Profiler {
         typeToDetails.clear();
 
         // average group by s.type
-        for (StepDetails sd : stepDetails) {
+        for (StepDetails sd : steps) {
             if (typeToDetails.containsKey(sd.type)) continue;
 
             String type = sd.type;
             double sum = 0f;
 
-            for (StepDetails sd2 : stepDetails) {
+            for (StepDetails sd2 : steps) {
                 if (type.equals(sd2.type)) {
                     sum += sd2.time;
                 }
@@ -247,14 +441,14 @@ public class Profiler {
     /**
      * Create a large log of all the internal instructions that were evaluated while
      * profiling was active. Log is in a tab-separated format, for easy loading into
-     * a spreadsheet application.
+     * a spreadsheet application. In sampling mode, it only has the samples kept.
      */
     public String megalog() {
         StringBuilder sb = new StringBuilder();
 
         sb.append("Step type\tDescription\tPath\tTime\n");
 
-        for (StepDetails step : stepDetails) {
+        for (StepDetails step : getStepDetails()) {
             sb.append(step.type);
             sb.append("\t");
             sb.append(step.obj.toString());
@@ -269,17 +463,28 @@ public class Profiler {
     }
 
     void preSnapshot() {
+        if (sampleStacks != null) {
+            if (stepSampled) snapStart = System.nanoTime();
+            return;
+        }
+
         snapWatch.reset();
         snapWatch.start();
     }
 
     void postSnapshot() {
+        if (sampleStacks != null) {
+            if (stepSampled) snapTotal += (System.nanoTime() - snapStart) / 1000000.0 * sampleInterval;
+            return;
+        }
+
         snapWatch.stop();
         snapTotal += millisecs(snapWatch);
     }
 
     double millisecs(Stopwatch watch) {
-        return watch.getElapsedMilliseconds();
+        // Steps take well under a millisecond
+        return watch.getElapsedTicks() / 10000.0;
     }
 
     static String formatMillisecs(double num) {
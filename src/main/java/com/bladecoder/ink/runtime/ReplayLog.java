@@ -0,0 +1,349 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A compact record of a session, from which Story.replay() rebuilds the same
+ * state, as an alternative to saving the whole state.
+ *
+ * Given its random seed, a story only depends on what the game does to it, so
+ * the log keeps the seed, the choices taken, choosePathString() and
+ * evaluateFunction() calls, flow switches, how far the story was continued
+ * between them and the results of the external functions. External functions
+ * aren't called when replaying.
+ *
+ * Not recorded: globals set by the game through VariablesState, anything an
+ * external function or variable observer does to the story, and states loaded
+ * with StoryState.loadJson().
+ */
+public class ReplayLog {
+    private enum EventType {
+        Choice,
+        Path,
+        Function,
+        SwitchFlow,
+        DefaultFlow,
+        RemoveFlow
+    }
+
+    // Something the game did to the story
+    private static class Event {
+        final EventType type;
+        final int choiceIndex;
+        final String name;
+        final boolean resetCallstack;
+        final Object[] arguments;
+
+        // Number of Continue() calls since the previous event, or -1 if the
+        // story was continued as far as it could go
+        int continues;
+
+        Event(EventType type, int choiceIndex, String name, boolean resetCallstack, Object[] arguments) {
+            this.type = type;
+            this.choiceIndex = choiceIndex;
+            this.name = name;
+            this.resetCallstack = resetCallstack;
+            this.arguments = arguments;
+        }
+    }
+
+    static class ExternalCall {
+        final String name;
+        final RTObject result;
+        final boolean lookaheadSafe;
+
+        ExternalCall(String name, RTObject result, boolean lookaheadSafe) {
+            this.name = name;
+            this.result = result;
+            this.lookaheadSafe = lookaheadSafe;
+        }
+    }
+
+    private final int seed;
+    private final List<Event> events = new ArrayList<>();
+    private final List<ExternalCall> externals = new ArrayList<>();
+
+    // Continue() calls since the last event and whether they got the story to a
+    // choice point or the end
+    private int continues;
+    private boolean stopped;
+
+    // Next external result to use while replaying, or -1 when recording
+    private int replayPosition = -1;
+    private int externalsAtSnapshot;
+
+    ReplayLog(int seed, boolean stopped) {
+        this.seed = seed;
+        this.stopped = stopped;
+    }
+
+    int getSeed() {
+        return seed;
+    }
+
+    /**
+     * Number of choices, paths, function evaluations and flow changes recorded.
+     */
+    public int getEventCount() {
+        return events.size();
+    }
+
+    void continued(boolean stopped) {
+        continues++;
+        this.stopped = stopped;
+    }
+
+    void addChoice(int choiceIndex, boolean stopped) {
+        add(new Event(EventType.Choice, choiceIndex, null, false, null), stopped);
+    }
+
+    void addPath(String path, boolean resetCallstack, Object[] arguments, boolean stopped) {
+        add(new Event(EventType.Path, 0, path, resetCallstack, copy(arguments)), stopped);
+    }
+
+    void addFunction(String functionName, Object[] arguments, boolean stopped) {
+        add(new Event(EventType.Function, 0, functionName, false, copy(arguments)), stopped);
+    }
+
+    void addSwitchFlow(String flowName, boolean stopped) {
+        add(new Event(EventType.SwitchFlow, 0, flowName, false, null), stopped);
+    }
+
+    void addDefaultFlow(boolean stopped) {
+        add(new Event(EventType.DefaultFlow, 0, null, false, null), stopped);
+    }
+
+    void addRemoveFlow(String flowName, boolean stopped) {
+        add(new Event(EventType.RemoveFlow, 0, flowName, false, null), stopped);
+    }
+
+    private static Object[] copy(Object[] arguments) {
+        return arguments == null ? null : arguments.clone();
+    }
+
+    private void add(Event event, boolean stopped) {
+        event.continues = this.stopped ? -1 : continues;
+        events.add(event);
+
+        continues = 0;
+        this.stopped = stopped;
+    }
+
+    void addExternal(String name, RTObject result, boolean lookaheadSafe) {
+        externals.add(new ExternalCall(name, result, lookaheadSafe));
+    }
+
+    // The story took a snapshot to look ahead after a newline. If it rewinds
+    // to it, the external functions called since will be called again.
+    void snapshot() {
+        externalsAtSnapshot = replayPosition >= 0 ? replayPosition : externals.size();
+    }
+
+    void restoreSnapshot() {
+        if (replayPosition >= 0) {
+            replayPosition = externalsAtSnapshot;
+        } else {
+            while (externals.size() > externalsAtSnapshot) externals.remove(externals.size() - 1);
+        }
+    }
+
+    void replay(Story story) throws Exception {
+        replayPosition = 0;
+
+        try {
+            for (Event e : events) {
+                catchUp(story, e.continues);
+
+                switch (e.type) {
+                    case Choice:
+                        story.chooseChoiceIndex(e.choiceIndex);
+                        break;
+                    case Path:
+                        story.choosePathString(e.name, e.resetCallstack, e.arguments);
+                        break;
+                    case Function:
+                        story.evaluateFunction(e.name, e.arguments);
+                        break;
+                    case SwitchFlow:
+                        story.switchFlow(e.name);
+                        break;
+                    case DefaultFlow:
+                        story.switchToDefaultFlow();
+                        break;
+                    case RemoveFlow:
+                        story.removeFlow(e.name);
+                        break;
+                }
+            }
+
+            catchUp(story, stopped ? -1 : continues);
+
+            if (replayPosition != externals.size())
+                throw new Exception("Replay log doesn't match the story: "
+                        + (externals.size() - replayPosition) + " external function results were not used");
+        } finally {
+            replayPosition = -1;
+        }
+    }
+
+    private static void catchUp(Story story, int continues) throws Exception {
+        if (continues < 0) {
+            story.fastForward();
+        } else {
+            for (int i = 0; i < continues; i++) story.Continue();
+        }
+    }
+
+    /**
+     * The recorded result of the next external function call while replaying,
+     * or null if there are none left.
+     */
+    ExternalCall nextExternal(String name) throws Exception {
+        if (replayPosition < 0 || replayPosition >= externals.size()) return null;
+
+        ExternalCall call = externals.get(replayPosition);
+
+        if (!call.name.equals(name))
+            throw new Exception("Replay log doesn't match the story: the story called external function '" + name
+                    + "' but '" + call.name + "' was recorded");
+
+        return call;
+    }
+
+    void skipExternal() {
+        replayPosition++;
+    }
+
+    public String toJson() throws Exception {
+        SimpleJson.Writer writer = new SimpleJson.Writer();
+
+        writer.writeObjectStart();
+        writer.writeProperty("seed", seed);
+
+        writer.writePropertyStart("events");
+        writer.writeArrayStart();
+        for (Event e : events) {
+            writer.writeObjectStart();
+
+            switch (e.type) {
+                case Choice:
+                    writer.writeProperty("choice", e.choiceIndex);
+                    break;
+                case Path:
+                    writer.writeProperty("path", e.name);
+                    if (!e.resetCallstack) writer.writeProperty("resetCallstack", false);
+                    break;
+                case Function:
+                    writer.writeProperty("function", e.name);
+                    break;
+                case SwitchFlow:
+                    writer.writeProperty("switchFlow", e.name);
+                    break;
+                case DefaultFlow:
+                    writer.writeProperty("defaultFlow", true);
+                    break;
+                case RemoveFlow:
+                    writer.writeProperty("removeFlow", e.name);
+                    break;
+            }
+
+            if (e.arguments != null && e.arguments.length > 0) {
+                writer.writePropertyStart("args");
+                writer.writeArrayStart();
+                for (Object arg : e.arguments) Json.writeRuntimeObject(writer, AbstractValue.create(arg));
+                writer.writeArrayEnd();
+                writer.writePropertyEnd();
+            }
+
+            if (e.continues >= 0) writer.writeProperty("continues", e.continues);
+
+            writer.writeObjectEnd();
+        }
+        writer.writeArrayEnd();
+        writer.writePropertyEnd();
+
+        if (!externals.isEmpty()) {
+            writer.writePropertyStart("externals");
+            writer.writeArrayStart();
+            for (ExternalCall call : externals) {
+                writer.writeObjectStart();
+                writer.writeProperty("name", call.name);
+                writer.writePropertyStart("result");
+                Json.writeRuntimeObject(writer, call.result);
+                writer.writePropertyEnd();
+                if (call.lookaheadSafe) writer.writeProperty("lookaheadSafe", true);
+                writer.writeObjectEnd();
+            }
+            writer.writeArrayEnd();
+            writer.writePropertyEnd();
+        }
+
+        if (!stopped) writer.writeProperty("continues", continues);
+
+        writer.writeObjectEnd();
+
+        return writer.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static ReplayLog fromJson(String json) throws Exception {
+        HashMap<String, Object> jObject = SimpleJson.textToDictionary(json);
+
+        Object continues = jObject.get("continues");
+        ReplayLog log = new ReplayLog((int) jObject.get("seed"), continues == null);
+        if (continues != null) log.continues = (int) continues;
+
+        for (Object token : (List<Object>) jObject.get("events")) {
+            HashMap<String, Object> jEvent = (HashMap<String, Object>) token;
+            Event e;
+
+            Object[] arguments = null;
+            List<Object> jArgs = (List<Object>) jEvent.get("args");
+            if (jArgs != null) {
+                arguments = new Object[jArgs.size()];
+                for (int i = 0; i < arguments.length; i++)
+                    arguments[i] = ((Value<?>) Json.jTokenToRuntimeObject(jArgs.get(i))).getValueObject();
+            }
+
+            if (jEvent.containsKey("choice")) {
+                e = new Event(EventType.Choice, (int) jEvent.get("choice"), null, false, null);
+            } else if (jEvent.containsKey("path")) {
+                e = new Event(
+                        EventType.Path,
+                        0,
+                        (String) jEvent.get("path"),
+                        !Boolean.FALSE.equals(jEvent.get("resetCallstack")),
+                        arguments);
+            } else if (jEvent.containsKey("function")) {
+                e = new Event(EventType.Function, 0, (String) jEvent.get("function"), false, arguments);
+            } else if (jEvent.containsKey("switchFlow")) {
+                e = new Event(EventType.SwitchFlow, 0, (String) jEvent.get("switchFlow"), false, null);
+            } else if (jEvent.containsKey("defaultFlow")) {
+                e = new Event(EventType.DefaultFlow, 0, null, false, null);
+            } else if (jEvent.containsKey("removeFlow")) {
+                e = new Event(EventType.RemoveFlow, 0, (String) jEvent.get("removeFlow"), false, null);
+            } else {
+                throw new Exception("Unknown replay log event: " + jEvent);
+            }
+
+            Object eventContinues = jEvent.get("continues");
+            e.continues = eventContinues == null ? -1 : (int) eventContinues;
+            log.events.add(e);
+        }
+
+        List<Object> jExternals = (List<Object>) jObject.get("externals");
+        if (jExternals != null) {
+            for (Object token : jExternals) {
+                HashMap<String, Object> jCall = (HashMap<String, Object>) token;
+                log.externals.add(new ExternalCall(
+                        (String) jCall.get("name"),
+                        Json.jTokenToRuntimeObject(jCall.get("result")),
+                        Boolean.TRUE.equals(jCall.get("lookaheadSafe"))));
+            }
+        }
+
+        return log;
+    }
+}
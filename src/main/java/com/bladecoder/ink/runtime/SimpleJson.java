@@ -250,6 +250,300 @@ class SimpleJson {
         }
     }
 
+    /**
+     * Pull-style reader that walks JSON text straight from a character stream, so
+     * big documents (e.g. save states) can be turned into runtime structures
+     * without first building a HashMap of the whole document.
+     *
+     * Objects are walked with readObjectStart() followed by nextProperty() /
+     * readPropertyName() pairs, and arrays with readArrayStart() followed by
+     * nextElement(). Values the caller isn't interested in can be skipped, and
+     * small sub-trees can be read into the same HashMap/List form used by
+     * Reader with readValue().
+     */
+    static class StreamReader {
+        private final java.io.Reader reader;
+        private final char[] buffer = new char[8192];
+        private int bufferPos;
+        private int bufferLen;
+        private long offset;
+
+        private final StringBuilder sb = new StringBuilder();
+
+        // Everything consumed while this is set is appended to it, see readRawValue()
+        private StringBuilder capture;
+
+        public StreamReader(java.io.Reader reader) {
+            this.reader = reader;
+        }
+
+        public void readObjectStart() throws Exception {
+            skipWhitespace();
+            expect('{');
+        }
+
+        /**
+         * Returns true if there is another property to read in the current object,
+         * or consumes the closing brace and returns false.
+         */
+        public boolean nextProperty() throws Exception {
+            return hasNext('}');
+        }
+
+        public String readPropertyName() throws Exception {
+            String name = readString();
+            skipWhitespace();
+            expect(':');
+            return name;
+        }
+
+        public void readArrayStart() throws Exception {
+            skipWhitespace();
+            expect('[');
+        }
+
+        /**
+         * Returns true if there is another element to read in the current array, or
+         * consumes the closing bracket and returns false.
+         */
+        public boolean nextElement() throws Exception {
+            return hasNext(']');
+        }
+
+        public String readString() throws Exception {
+            skipWhitespace();
+            expect('"');
+            sb.setLength(0);
+
+            while (true) {
+                char c = next();
+
+                if (c == '"') {
+                    break;
+                } else if (c == '\\') {
+                    c = next();
+                    switch (c) {
+                        case '"':
+                        case '\\':
+                        case '/':
+                            sb.append(c);
+                            break;
+                        case 'n':
+                            sb.append('\n');
+                            break;
+                        case 't':
+                            sb.append('\t');
+                            break;
+                        case 'r':
+                        case 'b':
+                        case 'f':
+                            // Ignore other control characters
+                            break;
+                        case 'u':
+                            int uchar = 0;
+                            for (int i = 0; i < 4; i++) {
+                                int digit = Character.digit(next(), 16);
+                                if (digit < 0) {
+                                    throw new Exception("Invalid Unicode escape character at offset " + offset);
+                                }
+                                uchar = uchar * 16 + digit;
+                            }
+                            sb.append((char) uchar);
+                            break;
+                        default:
+                            throw new Exception("Invalid Unicode escape character at offset " + offset);
+                    }
+                } else {
+                    sb.append(c);
+                }
+            }
+
+            return sb.toString();
+        }
+
+        public int readInt() throws Exception {
+            Object number = readNumber();
+
+            if (!(number instanceof Integer)) throw new Exception("Expected integer at offset " + offset);
+
+            return (Integer) number;
+        }
+
+        public boolean readBoolean() throws Exception {
+            skipWhitespace();
+
+            if (tryRead("true")) return true;
+            else if (tryRead("false")) return false;
+
+            throw new Exception("Expected boolean at offset " + offset);
+        }
+
+        /**
+         * Reads the next value into the same representation that Reader produces:
+         * HashMap, List, String, Integer, Float, Boolean or null.
+         */
+        public Object readValue() throws Exception {
+            skipWhitespace();
+            int c = peek();
+
+            if (c == '{') {
+                HashMap<String, Object> dict = new HashMap<>();
+                readObjectStart();
+                while (nextProperty()) {
+                    String key = readPropertyName();
+                    Object val = readValue();
+                    if (val == null) throw new Exception("Expected dictionary value at offset " + offset);
+                    dict.put(key, val);
+                }
+                return dict;
+            } else if (c == '[') {
+                List<Object> list = new ArrayList<>();
+                readArrayStart();
+                while (nextElement()) list.add(readValue());
+                return list;
+            } else if (c == '"') {
+                return readString();
+            } else if (c >= '0' && c <= '9' || c == '-' || c == '+') {
+                return readNumber();
+            } else if (tryRead("true")) {
+                return true;
+            } else if (tryRead("false")) {
+                return false;
+            } else if (tryRead("null")) {
+                return null;
+            }
+
+            throw new Exception("Unhandled RTObject type in JSON at offset " + offset);
+        }
+
+        public void skipValue() throws Exception {
+            skipWhitespace();
+            int c = peek();
+
+            if (c == '{') {
+                readObjectStart();
+                while (nextProperty()) {
+                    readPropertyName();
+                    skipValue();
+                }
+            } else if (c == '[') {
+                readArrayStart();
+                while (nextElement()) skipValue();
+            } else if (c == '"') {
+                next();
+                for (char sc = next(); sc != '"'; sc = next()) {
+                    if (sc == '\\') next();
+                }
+            } else if (c >= '0' && c <= '9' || c == '-' || c == '+') {
+                while (isNumberChar(peek())) next();
+            } else if (!tryRead("true") && !tryRead("false") && !tryRead("null")) {
+                throw new Exception("Unhandled RTObject type in JSON at offset " + offset);
+            }
+        }
+
+        /**
+         * Skips the next value, returning its JSON text exactly as it was read.
+         */
+        public String readRawValue() throws Exception {
+            skipWhitespace();
+
+            capture = new StringBuilder();
+            try {
+                skipValue();
+                return capture.toString();
+            } finally {
+                capture = null;
+            }
+        }
+
+        Object readNumber() throws Exception {
+            skipWhitespace();
+            sb.setLength(0);
+            boolean isFloat = false;
+
+            for (int c = peek(); c != -1; c = peek()) {
+                if (c == '.' || c == 'e' || c == 'E') isFloat = true;
+
+                if (isNumberChar(c)) sb.append(next());
+                else break;
+            }
+
+            String numStr = sb.toString();
+            try {
+                if (isFloat) return Float.parseFloat(numStr);
+                else return Integer.parseInt(numStr);
+            } catch (NumberFormatException e) {
+                throw new Exception("Failed to parse number value: " + numStr);
+            }
+        }
+
+        static boolean isNumberChar(int c) {
+            return c >= '0' && c <= '9' || c == '.' || c == '-' || c == '+' || c == 'E' || c == 'e';
+        }
+
+        boolean hasNext(char close) throws Exception {
+            skipWhitespace();
+
+            if (peek() == close) {
+                next();
+                return false;
+            }
+
+            if (peek() == ',') {
+                next();
+                skipWhitespace();
+            }
+
+            return true;
+        }
+
+        boolean tryRead(String textToRead) throws Exception {
+            if (peek() != textToRead.charAt(0)) return false;
+
+            for (int i = 0; i < textToRead.length(); i++) {
+                if (next() != textToRead.charAt(i))
+                    throw new Exception("Expected " + textToRead + " at offset " + offset);
+            }
+
+            return true;
+        }
+
+        void expect(char c) throws Exception {
+            if (peek() != c) throw new Exception("Expected " + c + " at offset " + offset);
+
+            next();
+        }
+
+        void skipWhitespace() throws Exception {
+            for (int c = peek(); c == ' ' || c == '\t' || c == '\n' || c == '\r'; c = peek()) next();
+        }
+
+        int peek() throws Exception {
+            if (bufferPos == bufferLen) {
+                bufferLen = reader.read(buffer, 0, buffer.length);
+                bufferPos = 0;
+
+                if (bufferLen <= 0) {
+                    bufferLen = 0;
+                    return -1;
+                }
+            }
+
+            return buffer[bufferPos];
+        }
+
+        char next() throws Exception {
+            if (peek() == -1) throw new Exception("Unexpected EOF at offset " + offset);
+
+            offset++;
+            char c = buffer[bufferPos++];
+
+            if (capture != null) capture.append(c);
+
+            return c;
+        }
+    }
+
     public static class Writer {
         Stack<StateElement> stateStack = new Stack<>();
         java.io.Writer writer;
@@ -437,6 +731,46 @@ class SimpleJson {
             writer.write("\"");
         }
 
+        /**
+         * Writes a value that is already JSON text, as is.
+         */
+        public void writeRaw(String json) throws Exception {
+            startNewObject(true);
+            writer.write(json);
+        }
+
+        /**
+         * Writes a value in the HashMap/List form produced by Reader.
+         */
+        @SuppressWarnings("unchecked")
+        public void writeToken(Object token) throws Exception {
+            if (token instanceof HashMap) {
+                writeObjectStart();
+                for (java.util.Map.Entry<String, Object> keyVal : ((HashMap<String, Object>) token).entrySet()) {
+                    writePropertyStart(keyVal.getKey());
+                    writeToken(keyVal.getValue());
+                    writePropertyEnd();
+                }
+                writeObjectEnd();
+            } else if (token instanceof List) {
+                writeArrayStart();
+                for (Object element : (List<Object>) token) writeToken(element);
+                writeArrayEnd();
+            } else if (token instanceof String) {
+                write((String) token);
+            } else if (token instanceof Integer) {
+                write((int) (Integer) token);
+            } else if (token instanceof Float) {
+                write((float) (Float) token);
+            } else if (token instanceof Boolean) {
+                write((boolean) (Boolean) token);
+            } else if (token == null) {
+                writeNull();
+            } else {
+                throw new Exception("Can't write JSON token: " + token);
+            }
+        }
+
         public void write(boolean b) throws Exception {
             startNewObject(false);
             writer.write(b ? "true" : "false");
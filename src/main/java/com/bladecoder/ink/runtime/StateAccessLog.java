@@ -0,0 +1,99 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * The parts of the shared state (globals, visit counts, turn indices and the
+ * random seed) that the story reads and writes while the log is set on its
+ * VariablesState. For written entries it keeps the value from before the
+ * first write, or null if there wasn't one.
+ *
+ * Visit counts are only ever incremented, so incrementing one isn't counted
+ * as reading it.
+ */
+class StateAccessLog {
+    final HashSet<String> globalsRead = new HashSet<>();
+    final HashMap<String, RTObject> globalsWritten = new HashMap<>();
+
+    final HashSet<String> visitCountsRead = new HashSet<>();
+    final HashMap<String, Integer> visitCountsWritten = new HashMap<>();
+
+    final HashSet<String> turnIndicesRead = new HashSet<>();
+    final HashMap<String, Integer> turnIndicesWritten = new HashMap<>();
+
+    boolean seedRead;
+    boolean seedWritten;
+    int oldSeed;
+
+    boolean previousRandomRead;
+    boolean previousRandomWritten;
+    int oldPreviousRandom;
+
+    void readGlobal(String name) {
+        globalsRead.add(name);
+    }
+
+    void writeGlobal(String name, RTObject oldValue) {
+        if (!globalsWritten.containsKey(name)) globalsWritten.put(name, oldValue);
+    }
+
+    void readVisitCount(String path) {
+        visitCountsRead.add(path);
+    }
+
+    void writeVisitCount(String path, Integer oldCount) {
+        if (!visitCountsWritten.containsKey(path)) visitCountsWritten.put(path, oldCount);
+    }
+
+    void readTurnIndex(String path) {
+        turnIndicesRead.add(path);
+    }
+
+    void writeTurnIndex(String path, Integer oldIndex) {
+        if (!turnIndicesWritten.containsKey(path)) turnIndicesWritten.put(path, oldIndex);
+    }
+
+    void writeSeed(int oldValue) {
+        if (!seedWritten) oldSeed = oldValue;
+        seedWritten = true;
+    }
+
+    void writePreviousRandom(int oldValue) {
+        if (!previousRandomWritten) oldPreviousRandom = oldValue;
+        previousRandomWritten = true;
+    }
+
+    /**
+     * Whether this read anything the other log wrote.
+     */
+    boolean readAnyWrittenBy(StateAccessLog other) {
+        if ((seedRead && other.seedWritten) || (previousRandomRead && other.previousRandomWritten)) return true;
+
+        for (String name : globalsRead) {
+            if (other.globalsWritten.containsKey(name)) return true;
+        }
+
+        for (String path : visitCountsRead) {
+            if (other.visitCountsWritten.containsKey(path)) return true;
+        }
+
+        for (String path : turnIndicesRead) {
+            if (other.turnIndicesWritten.containsKey(path)) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Adds what the other log wrote to this one's writes.
+     */
+    void addWrites(StateAccessLog other) {
+        for (String name : other.globalsWritten.keySet()) writeGlobal(name, null);
+        for (String path : other.visitCountsWritten.keySet()) writeVisitCount(path, null);
+        for (String path : other.turnIndicesWritten.keySet()) writeTurnIndex(path, null);
+
+        if (other.seedWritten) writeSeed(0);
+        if (other.previousRandomWritten) writePreviousRandom(0);
+    }
+}
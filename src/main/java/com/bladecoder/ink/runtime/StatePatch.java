@@ -1,13 +1,21 @@
 package com.bladecoder.ink.runtime;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 
 class StatePatch {
     private HashMap<String, RTObject> globals;
     private HashSet<String> changedVariables = new HashSet<>();
     private HashMap<Container, Integer> visitCounts = new HashMap<>();
     private HashMap<Container, Integer> turnIndices = new HashMap<>();
+    private long globalsHash;
+
+    // Flows removed or replaced while patching. They may still be in the state
+    // being saved, so they're only discarded from the flow store once the patch
+    // is applied.
+    private final List<Flow> removedFlows = new ArrayList<>();
 
     public StatePatch(StatePatch toCopy) {
         if (toCopy != null) {
@@ -15,6 +23,8 @@ class StatePatch {
             changedVariables = new HashSet<>(toCopy.changedVariables);
             visitCounts = new HashMap<>(toCopy.visitCounts);
             turnIndices = new HashMap<>(toCopy.turnIndices);
+            globalsHash = toCopy.globalsHash;
+            removedFlows.addAll(toCopy.removedFlows);
         } else {
             globals = new HashMap<>();
             changedVariables = new HashSet<>();
@@ -51,6 +61,15 @@ class StatePatch {
         return turnIndices.get(container);
     }
 
+    // Fingerprint hash of the globals as seen through the patch
+    long getGlobalsHash() {
+        return globalsHash;
+    }
+
+    void setGlobalsHash(long globalsHash) {
+        this.globalsHash = globalsHash;
+    }
+
     public HashMap<String, RTObject> getGlobals() {
         return globals;
     }
@@ -66,4 +85,12 @@ class StatePatch {
     public HashMap<Container, Integer> getTurnIndices() {
         return turnIndices;
     }
+
+    void addRemovedFlow(Flow flow) {
+        removedFlows.add(flow);
+    }
+
+    List<Flow> getRemovedFlows() {
+        return removedFlows;
+    }
 }
@@ -5,6 +5,7 @@ import com.bladecoder.ink.runtime.SimpleJson.InnerWriter;
 import com.bladecoder.ink.runtime.SimpleJson.Writer;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -14,6 +15,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * A Story is the core class that represents a complete Ink narrative, and
@@ -190,6 +193,11 @@ public class Story implements VariablesState.VariableChanged {
 
     private boolean hasValidatedExternals;
 
+    // Async external function call a continueAsync() is stopped at
+    private CompletableFuture<?> pendingExternalResult;
+    private String pendingExternalName;
+    private boolean pendingExternalLookaheadSafe;
+
     private StoryState state;
 
     private Container temporaryEvaluationContainer;
@@ -200,6 +208,22 @@ public class Story implements VariablesState.VariableChanged {
 
     private Profiler profiler;
 
+    private StoryTracer tracer;
+
+    private StoryMetrics metrics;
+    private StoryMetrics.ContinueStats continueStats;
+
+    private CoverageCollector coverage;
+    private int[] coverageCounts;
+
+    private StoryLatency latency;
+
+    private int stepBudget;
+
+    // Limits of the continueAsync() in progress, for resumeAsync()
+    private float asyncMillisecsLimit;
+    private int asyncMaxSteps;
+
     private boolean asyncContinueActive;
     private StoryState stateSnapshotAtLastNewline = null;
 
@@ -209,6 +233,25 @@ public class Story implements VariablesState.VariableChanged {
 
     private boolean sawLookaheadUnsafeFunctionAfterNewline = false;
 
+    // Preset deflate dictionary for compressed saves, built on first use
+    private byte[] saveDictionary;
+
+    private int maxLoadedFlows;
+    private FlowStore flowStore;
+
+    // Containers entered so far, only recorded while exploring
+    private HashSet<Container> visitedContainers;
+
+    // Session being recorded, and the one being replayed
+    private ReplayLog replayLog;
+    private ReplayLog replaySource;
+
+    // Calls to evaluateFunction() in progress
+    private int functionEvaluationDepth;
+
+    private boolean snapshotPublishing;
+    private volatile StorySnapshot publishedSnapshot;
+
     public Error.ErrorHandler onError = null;
 
     // Warning: When creating a Story using this constructor, you need to
@@ -292,6 +335,8 @@ public class Story implements VariablesState.VariableChanged {
 
         state.addError(message, isWarning);
 
+        if (tracer != null) tracer.error(message, isWarning, state.getCurrentPathString(), getCurrentFlowName());
+
         // In a broken state don't need to know about any other errors.
         if (!isWarning) state.forceEnd();
     }
@@ -310,6 +355,117 @@ public class Story implements VariablesState.VariableChanged {
         return profiler;
     }
 
+    /**
+     * Like startProfiling(), but only timing one in every sampleInterval steps,
+     * and keeping the latest capacity samples. Cheap enough to leave on.
+     */
+    public Profiler startProfiling(int sampleInterval, int capacity) throws Exception {
+        ifAsyncWeCant("start profiling");
+
+        if (sampleInterval < 1 || capacity < 1)
+            throw new Exception("The sample interval and capacity of the profiler must be at least 1");
+
+        profiler = new Profiler(sampleInterval, capacity);
+
+        return profiler;
+    }
+
+    /**
+     * Sets what to tell when the story continues, takes choices, calls external
+     * functions, takes and restores snapshots, saves, loads and gets errors.
+     * Null (the default) to stop tracing.
+     */
+    public void setTracer(StoryTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    public StoryTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Sets what to tell what each Continue() did. Null (the default) to stop
+     * counting.
+     */
+    public void setMetrics(StoryMetrics metrics) throws Exception {
+        ifAsyncWeCant("set the metrics");
+
+        if (metrics != null && continueStats == null) continueStats = new StoryMetrics.ContinueStats();
+
+        this.metrics = metrics;
+    }
+
+    public StoryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the histograms to record the latency of Continue(),
+     * chooseChoiceIndex() and evaluateFunction() in. Null (the default) to stop
+     * recording.
+     */
+    public void setLatency(StoryLatency latency) {
+        this.latency = latency;
+    }
+
+    public StoryLatency getLatency() {
+        return latency;
+    }
+
+    /**
+     * Makes every continueAsync() stop after running the given number of
+     * steps, even with no time limit, and leave asyncContinueComplete() false
+     * until it's called again. Unlike a time limit, where it stops doesn't
+     * depend on the speed of the machine. Continue() isn't limited. 0 (the
+     * default) for no limit.
+     */
+    public void setStepBudget(int maxSteps) throws Exception {
+        if (maxSteps < 0) throw new Exception("The step budget can't be negative");
+
+        stepBudget = maxSteps;
+    }
+
+    public int getStepBudget() {
+        return stepBudget;
+    }
+
+    /**
+     * Start counting how many times each piece of content is run, into the
+     * collector. The counts are added to it by flushCoverage() and
+     * endCoverage().
+     *
+     * @throws Exception if the collector has counts for a different story.
+     */
+    public void startCoverage(CoverageCollector coverage) throws Exception {
+        ifAsyncWeCant("start coverage");
+
+        endCoverage();
+
+        coverageCounts = coverage.startSession(mainContentContainer);
+        this.coverage = coverage;
+    }
+
+    /**
+     * Adds the counts since the coverage started, or since the last flush, to
+     * the collector.
+     */
+    public void flushCoverage() {
+        if (coverage == null) return;
+
+        coverage.add(coverageCounts);
+        Arrays.fill(coverageCounts, 0);
+    }
+
+    /**
+     * Adds the remaining counts to the collector and stops counting.
+     */
+    public void endCoverage() {
+        flushCoverage();
+
+        coverage = null;
+        coverageCounts = null;
+    }
+
     /**
      * Stop recording ink profiling information during calls to Continue on Story.
      * To generate a report from the profiler, call
@@ -338,6 +494,12 @@ public class Story implements VariablesState.VariableChanged {
     /**
      * Binds a Java function to an ink EXTERNAL function.
      *
+     * The function can return a CompletableFuture for a result that isn't
+     * ready yet. A time or step limited continueAsync(), or continueAsyncSteps(),
+     * then stops at the call until the future completes, see
+     * getPendingExternalResult(). Everywhere else (Continue(),
+     * evaluateFunction()...) the result is waited for.
+     *
      * @param funcName      EXTERNAL ink function name to bind to.
      * @param func          The Java function to bind.
      * @param lookaheadSafe The ink engine often evaluates further than you might
@@ -505,7 +667,12 @@ public class Story implements VariablesState.VariableChanged {
 
         funcDef = externals.get(funcName);
 
-        if (funcDef != null && funcDef.lookaheadSafe && state.inStringEvaluation()) {
+        // When replaying, the recorded result is used even if the function isn't bound
+        ReplayLog.ExternalCall replayed = replaySource != null ? replaySource.nextExternal(funcName) : null;
+        boolean bound = funcDef != null || replayed != null;
+        boolean lookaheadSafe = replayed != null ? replayed.lookaheadSafe : funcDef != null && funcDef.lookaheadSafe;
+
+        if (bound && lookaheadSafe && state.inStringEvaluation()) {
             // 16th Jan 2023: Example ink that was failing:
             //
             //      A line above
@@ -537,13 +704,13 @@ public class Story implements VariablesState.VariableChanged {
 
         // Should this function break glue? Abort run if we've already seen a newline.
         // Set a bool to tell it to restore the snapshot at the end of this instruction.
-        if (funcDef != null && !funcDef.lookaheadSafe && stateSnapshotAtLastNewline != null) {
+        if (bound && !lookaheadSafe && stateSnapshotAtLastNewline != null) {
             sawLookaheadUnsafeFunctionAfterNewline = true;
             return;
         }
 
         // Try to use fallback function?
-        if (funcDef == null) {
+        if (!bound) {
             if (allowExternalFunctionFallbacks) {
 
                 fallbackFunctionContainer = knotContainerWithName(funcName);
@@ -579,9 +746,66 @@ public class Story implements VariablesState.VariableChanged {
         // so they're the right way round again.
         Collections.reverse(arguments);
 
+        if (replayed != null) {
+            replaySource.skipExternal();
+            state.pushEvaluationStack(replayed.result);
+            return;
+        }
+
         // Run the function!
-        Object funcResult = funcDef.function.call(arguments.toArray());
+        Object funcResult;
+
+        if (tracer == null) {
+            funcResult = funcDef.function.call(arguments.toArray());
+        } else {
+            Object span = tracer.begin(
+                    StoryTracer.Operation.ExternalFunction,
+                    funcName,
+                    state.getCurrentPathString(),
+                    getCurrentFlowName());
+
+            try {
+                funcResult = funcDef.function.call(arguments.toArray());
+            } finally {
+                tracer.end(span, StoryTracer.Operation.ExternalFunction, -1);
+            }
+        }
+
+        if (funcResult instanceof CompletableFuture) {
+            CompletableFuture<?> future = (CompletableFuture<?>) funcResult;
 
+            // Suspend a limited async evaluation until the result is ready. The
+            // arguments have been popped and the pointer moves on as usual, so
+            // resuming only needs to push the result.
+            if (asyncContinueActive && !future.isDone()) {
+                pendingExternalResult = future;
+                pendingExternalName = funcName;
+                pendingExternalLookaheadSafe = funcDef.lookaheadSafe;
+                return;
+            }
+
+            funcResult = externalResult(future);
+        }
+
+        pushExternalResult(funcName, funcResult, funcDef.lookaheadSafe);
+    }
+
+    private static Object externalResult(CompletableFuture<?> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private void resumeExternalCall() throws Exception {
+        CompletableFuture<?> future = pendingExternalResult;
+        pendingExternalResult = null;
+
+        pushExternalResult(pendingExternalName, externalResult(future), pendingExternalLookaheadSafe);
+    }
+
+    private void pushExternalResult(String funcName, Object funcResult, boolean lookaheadSafe) throws Exception {
         // Convert return value (if any) to the a type that the ink engine can use
         RTObject returnObj;
         if (funcResult != null) {
@@ -594,9 +818,21 @@ public class Story implements VariablesState.VariableChanged {
             returnObj = new Void();
         }
 
+        if (replayLog != null) replayLog.addExternal(funcName, returnObj, lookaheadSafe);
+
         state.pushEvaluationStack(returnObj);
     }
 
+    /**
+     * The result of an external function that the current continueAsync() or
+     * continueAsyncSteps() is waiting for, or null. Call resumeAsync() (or
+     * continueAsync() again) once it's complete, e.g. from a callback added to
+     * it, to carry on from the call. Calling Continue() instead waits for it.
+     */
+    public CompletableFuture<?> getPendingExternalResult() {
+        return pendingExternalResult;
+    }
+
     /**
      * Check whether more content is available if you were to call Continue() - i.e.
      * are we mid story rather than at a choice point or at the end.
@@ -622,9 +858,29 @@ public class Story implements VariablesState.VariableChanged {
         // can create multiple leading edges for the story, each of
         // which has its own context.
         Choice choiceToChoose = choices.get(choiceIdx);
-        state.getCallStack().setCurrentThread(choiceToChoose.getThreadAtGeneration());
 
-        choosePath(choiceToChoose.targetPath);
+        long startNanos = latency != null ? System.nanoTime() : 0;
+
+        Object span = null;
+        if (tracer != null)
+            span = tracer.begin(
+                    StoryTracer.Operation.Choice,
+                    choiceToChoose.getText(),
+                    choiceToChoose.getPathStringOnChoice(),
+                    getCurrentFlowName());
+
+        try {
+            state.getCallStack().setCurrentThread(choiceToChoose.getThreadAtGeneration());
+
+            choosePath(choiceToChoose.targetPath);
+        } finally {
+            if (tracer != null) tracer.end(span, StoryTracer.Operation.Choice, -1);
+        }
+
+        if (replayLog != null) replayLog.addChoice(choiceIdx, !canContinue());
+        if (snapshotPublishing) publishSnapshot();
+
+        if (latency != null) latency.getChoiceLatency().record(System.nanoTime() - startNanos);
     }
 
     void choosePath(Path p) throws Exception {
@@ -698,6 +954,9 @@ public class Story implements VariablesState.VariableChanged {
 
         state.passArgumentsToEvaluationStack(arguments);
         choosePath(new Path(path));
+
+        if (replayLog != null) replayLog.addPath(path, resetCallstack, arguments, !canContinue());
+        if (snapshotPublishing) publishSnapshot();
     }
 
     public void choosePathString(String path) throws Exception {
@@ -756,14 +1015,52 @@ public class Story implements VariablesState.VariableChanged {
             throw new Exception("Story is already in background saving mode, can't switch flow to " + flowName);
 
         state.switchFlowInternal(flowName);
+
+        if (replayLog != null) replayLog.addSwitchFlow(flowName, !canContinue());
+        if (snapshotPublishing) publishSnapshot();
+    }
+
+    /**
+     * Limits how many flows are kept loaded in memory, the current one included.
+     * When more flows are in use, the least recently switched to are serialised
+     * to the given store, and loaded back transparently when switched to again.
+     * Takes effect on the next switchFlow.
+     *
+     * @param maxLoadedFlows Number of flows to keep loaded, at least 1.
+     * @param store Where evicted flows are kept, or null to keep all flows
+     *     loaded.
+     */
+    public void setFlowCache(int maxLoadedFlows, FlowStore store) throws Exception {
+        if (store != null && maxLoadedFlows < 1) throw new Exception("The current flow must always be kept loaded");
+
+        this.maxLoadedFlows = maxLoadedFlows;
+        this.flowStore = store;
+    }
+
+    int getMaxLoadedFlows() {
+        return maxLoadedFlows;
+    }
+
+    FlowStore getFlowStore() {
+        return flowStore;
+    }
+
+    void setVisitedContainers(HashSet<Container> visitedContainers) {
+        this.visitedContainers = visitedContainers;
     }
 
     public void removeFlow(String flowName) throws Exception {
         state.removeFlowInternal(flowName);
+
+        if (replayLog != null) replayLog.addRemoveFlow(flowName, !canContinue());
+        if (snapshotPublishing) publishSnapshot();
     }
 
     public void switchToDefaultFlow() throws Exception {
         state.switchToDefaultFlowInternal();
+
+        if (replayLog != null) replayLog.addDefaultFlow(!canContinue());
+        if (snapshotPublishing) publishSnapshot();
     }
 
     /**
@@ -775,7 +1072,7 @@ public class Story implements VariablesState.VariableChanged {
      * @return The line of text content.
      */
     public String Continue() throws StoryException, Exception {
-        continueAsync(0);
+        continueAsync(0, 0);
         return getCurrentText();
     }
 
@@ -797,21 +1094,87 @@ public class Story implements VariablesState.VariableChanged {
      * for smoother animation. If you pass a limit of zero, then it will fully
      * evaluate the ink in the same way as calling Continue (and in fact, this
      * exactly what Continue does internally).
+     * <p>
+     * If a step budget is set, it also stops after that many steps.
      */
     public void continueAsync(float millisecsLimitAsync) throws Exception {
-        if (!hasValidatedExternals) validateExternalBindings();
+        continueAsync(millisecsLimitAsync, stepBudget);
+    }
+
+    /**
+     * Like continueAsync(), but stopping after running the given number of
+     * steps instead of after some time. It doesn't read the clock, and where it
+     * stops doesn't depend on the speed of the machine, so many stories can be
+     * run a slice at a time, fairly and reproducibly.
+     */
+    public void continueAsyncSteps(int maxSteps) throws Exception {
+        if (maxSteps < 1) throw new Exception("continueAsyncSteps needs at least 1 step");
 
-        continueInternal(millisecsLimitAsync);
+        continueAsync(0, maxSteps);
+    }
+
+    /**
+     * Carries on the continueAsync() or continueAsyncSteps() in progress, with
+     * the same limit it was started with.
+     *
+     * @return asyncContinueComplete()
+     */
+    public boolean resumeAsync() throws Exception {
+        if (!asyncContinueActive) throw new Exception("There's no async continue to resume");
+
+        continueAsync(asyncMillisecsLimit, asyncMaxSteps);
+
+        return !asyncContinueActive;
+    }
+
+    private void continueAsync(float millisecsLimitAsync, int maxStepsAsync) throws Exception {
+        // Replays use the recorded results instead of the bound functions
+        if (!hasValidatedExternals && replaySource == null) validateExternalBindings();
+
+        continueInternal(millisecsLimitAsync, maxStepsAsync);
     }
 
     void continueInternal() throws Exception {
-        continueInternal(0);
+        continueInternal(0, 0);
+    }
+
+    void continueInternal(float millisecsLimitAsync, int maxStepsAsync) throws Exception {
+        if (tracer == null && latency == null) {
+            continueInternalUntraced(millisecsLimitAsync, maxStepsAsync);
+            return;
+        }
+
+        // Only the calls made by the game
+        boolean timed = latency != null && recursiveContinueCount == 0 && functionEvaluationDepth == 0;
+        long startNanos = timed ? System.nanoTime() : 0;
+
+        Object span = null;
+        if (tracer != null)
+            span = tracer.begin(
+                    StoryTracer.Operation.Continue, null, state.getCurrentPathString(), getCurrentFlowName());
+
+        try {
+            continueInternalUntraced(millisecsLimitAsync, maxStepsAsync);
+        } finally {
+            if (tracer != null) tracer.end(span, StoryTracer.Operation.Continue, -1);
+            if (timed) latency.getContinueLatency().record(System.nanoTime() - startNanos);
+        }
     }
 
-    void continueInternal(float millisecsLimitAsync) throws Exception {
+    private void continueInternalUntraced(float millisecsLimitAsync, int maxStepsAsync) throws Exception {
         if (profiler != null) profiler.preContinue();
 
+        // Continues run by external functions or evaluated functions add their
+        // steps to the game's Continue() rather than being reported on their own
+        boolean reportMetrics = metrics != null && recursiveContinueCount == 0 && functionEvaluationDepth == 0;
+        if (reportMetrics) continueStats.start();
+
         boolean isAsyncTimeLimited = millisecsLimitAsync > 0;
+        boolean isAsyncStepLimited = maxStepsAsync > 0;
+        boolean isAsyncLimited = isAsyncTimeLimited || isAsyncStepLimited;
+
+        if (pendingExternalResult != null && (!isAsyncLimited || pendingExternalResult.isDone()))
+            resumeExternalCall();
 
         recursiveContinueCount++;
 
@@ -819,7 +1182,7 @@ public class Story implements VariablesState.VariableChanged {
         // - full run through non-async (so not active and don't want to be)
         // - Starting async run-through
         if (!asyncContinueActive) {
-            asyncContinueActive = isAsyncTimeLimited;
+            asyncContinueActive = isAsyncLimited;
             if (!canContinue()) {
                 throw new Exception("Can't continue - should check canContinue before calling Continue");
             }
@@ -832,17 +1195,26 @@ public class Story implements VariablesState.VariableChanged {
             // In this case, we only want to batch observe variable changes
             // for the outermost call.
             if (recursiveContinueCount == 1) state.getVariablesState().startVariableObservation();
-        } else if (asyncContinueActive && !isAsyncTimeLimited) {
+        } else if (asyncContinueActive && !isAsyncLimited) {
             asyncContinueActive = false;
         }
 
-        // Start timing
-        Stopwatch durationStopwatch = new Stopwatch();
-        durationStopwatch.start();
+        if (isAsyncLimited) {
+            asyncMillisecsLimit = millisecsLimitAsync;
+            asyncMaxSteps = maxStepsAsync;
+        }
+
+        // Start timing. Only a time limit needs the clock.
+        long startNanos = isAsyncTimeLimited ? System.nanoTime() : 0;
+        long nanosLimitAsync = (long) (millisecsLimitAsync * 1000000);
+
+        int steps = 0;
 
         boolean outputStreamEndsInNewline = false;
         sawLookaheadUnsafeFunctionAfterNewline = false;
         do {
+            // Waiting for an async external function
+            if (pendingExternalResult != null) break;
 
             try {
                 outputStreamEndsInNewline = continueSingleStep();
@@ -853,25 +1225,25 @@ public class Story implements VariablesState.VariableChanged {
 
             if (outputStreamEndsInNewline) break;
 
-            // Run out of async time?
-            if (asyncContinueActive && durationStopwatch.getElapsedMilliseconds() > millisecsLimitAsync) {
+            // Run out of async time or steps?
+            if (asyncContinueActive && isAsyncTimeLimited && System.nanoTime() - startNanos > nanosLimitAsync) {
                 break;
             }
 
-        } while (canContinue());
+            if (asyncContinueActive && isAsyncStepLimited && ++steps >= maxStepsAsync) break;
 
-        durationStopwatch.stop();
+        } while (canContinue());
 
         HashMap<String, RTObject> changedVariablesToObserve = null;
 
         // 4 outcomes:
         // - got newline (so finished this line of text)
         // - can't continue (e.g. choices or ending)
-        // - ran out of time during evaluation
+        // - ran out of time during evaluation, or waiting for an async external function
         // - error
         //
         // Successfully finished evaluation in time (or in error)
-        if (outputStreamEndsInNewline || !canContinue()) {
+        if (pendingExternalResult == null && (outputStreamEndsInNewline || !canContinue())) {
             // Need to rewind, due to evaluating further than we should?
             if (stateSnapshotAtLastNewline != null) {
                 restoreStateSnapshot();
@@ -897,8 +1269,14 @@ public class Story implements VariablesState.VariableChanged {
             state.setDidSafeExit(false);
             sawLookaheadUnsafeFunctionAfterNewline = false;
 
-            if (recursiveContinueCount == 1)
+            if (recursiveContinueCount == 1) {
                 changedVariablesToObserve = state.getVariablesState().completeVariableObservation();
+
+                // Errors may still be reported and cleared, so only the pointer tells if this was the end.
+                // Lines of a function evaluated by the game are part of the evaluation.
+                if (replayLog != null && functionEvaluationDepth == 0)
+                    replayLog.continued(state.getCurrentPointer().isNull());
+            }
             asyncContinueActive = false;
         }
 
@@ -906,6 +1284,11 @@ public class Story implements VariablesState.VariableChanged {
 
         if (profiler != null) profiler.postContinue();
 
+        if (reportMetrics) {
+            continueStats.end(state);
+            metrics.continued(this, continueStats);
+        }
+
         // Report any errors that occured during evaluation.
         // This may either have been StoryExceptions that were thrown
         // and caught during evaluation, or directly added with AddError.
@@ -961,6 +1344,9 @@ public class Story implements VariablesState.VariableChanged {
             }
         }
 
+        if (snapshotPublishing && !asyncContinueActive && recursiveContinueCount == 0 && functionEvaluationDepth == 0)
+            publishSnapshot();
+
         // Send out variable observation events at the last second, since it might trigger new ink to be run
         if (changedVariablesToObserve != null && changedVariablesToObserve.size() > 0) {
             state.getVariablesState().notifyObservers(changedVariablesToObserve);
@@ -974,6 +1360,7 @@ public class Story implements VariablesState.VariableChanged {
         step();
 
         if (profiler != null) profiler.postStep();
+        if (metrics != null) continueStats.step(state);
 
         // Run out of content and we have a default invisible choice that we can follow?
         if (!canContinue() && !state.getCallStack().elementIsEvaluateFromGame()) {
@@ -983,8 +1370,9 @@ public class Story implements VariablesState.VariableChanged {
 
         if (profiler != null) profiler.preSnapshot();
 
-        // Don't save/rewind during string evaluation, which is e.g. used for choices
-        if (!state.inStringEvaluation()) {
+        // Don't save/rewind during string evaluation, which is e.g. used for choices.
+        // There aren't any lines to split when fast forwarding either.
+        if (!state.isSilentOutput() && !state.inStringEvaluation()) {
 
             // We previously found a newline, but were we just double checking that
             // it wouldn't immediately be removed by glue?
@@ -1064,6 +1452,118 @@ public class Story implements VariablesState.VariableChanged {
         return sb.toString();
     }
 
+    /**
+     * Continues the story to the next choice point or until it runs out of
+     * content, like continueMaximally(), but without generating any output. Logic,
+     * diverts, variables, visit counts and choices are evaluated as usual, and
+     * leave the state exactly as continueMaximally() would, but text and tags
+     * are thrown away as they're produced (only choice text and other strings
+     * being evaluated are built), and no snapshots are taken to look ahead
+     * for glue after each line.
+     *
+     * Useful to replay choices, catch up a state or evaluate conditions when
+     * nobody reads the text. Afterwards the current text is empty.
+     */
+    public void fastForward() throws StoryException, Exception {
+        ifAsyncWeCant("fast forward");
+
+        state.setSilentOutput(true);
+
+        try {
+            while (canContinue()) continueAsync(0, 0);
+        } finally {
+            state.setSilentOutput(false);
+        }
+    }
+
+    // Takes the state reached by choosing a choice and continuing one line,
+    // worked out by a ChoicePrefetcher. Only the current flow is replaced, so
+    // the other flows keep any progress made since the prefetch.
+    void adoptChoiceOutcome(int choiceIdx, String stateJson) throws Exception {
+        ifAsyncWeCant("choose a choice");
+
+        // The globals and visit counts are shared with the state being saved
+        if (asyncSaving) throw new Exception("Can't adopt a prefetched choice while saving on a background thread");
+
+        state.loadCurrentFlowJson(stateJson);
+
+        if (replayLog != null) {
+            replayLog.addChoice(choiceIdx, false);
+            replayLog.continued(state.getCurrentPointer().isNull());
+        }
+
+        if (snapshotPublishing) publishSnapshot();
+    }
+
+    /**
+     * Resets the story and starts recording a log of the session, to rebuild
+     * it later with replay(). See ReplayLog for what is recorded.
+     */
+    public ReplayLog startRecording() throws Exception {
+        resetState();
+
+        replayLog = new ReplayLog(state.getStorySeed(), !canContinue());
+        return replayLog;
+    }
+
+    public void stopRecording() {
+        replayLog = null;
+    }
+
+    /**
+     * Resets the story and replays a recorded session, running to each choice
+     * with fastForward() and using the recorded results of external functions
+     * instead of calling them. The current text is the last line the session
+     * got to, or empty if it got to a choice point or the end.
+     *
+     * Afterwards, the session keeps being recorded to the same log.
+     */
+    public void replay(ReplayLog log) throws Exception {
+        resetState();
+        state.setStorySeed(log.getSeed());
+
+        replaySource = log;
+
+        try {
+            log.replay(this);
+        } finally {
+            replaySource = null;
+        }
+
+        replayLog = log;
+
+        if (snapshotPublishing) publishSnapshot();
+    }
+
+    /**
+     * Turns on publishing a StorySnapshot after each Continue(), choice, flow
+     * change and function evaluation, for other threads to read with
+     * getPublishedSnapshot().
+     */
+    public void setSnapshotPublishing(boolean snapshotPublishing) throws Exception {
+        this.snapshotPublishing = snapshotPublishing;
+
+        publishedSnapshot = null;
+        if (snapshotPublishing) publishSnapshot();
+    }
+
+    /**
+     * Publishes a snapshot of the current state now. Call it after changing
+     * the state in ways that don't publish one, like setting globals or
+     * loading a save.
+     */
+    public void publishSnapshot() throws Exception {
+        publishedSnapshot = new StorySnapshot(this, publishedSnapshot);
+    }
+
+    /**
+     * The last snapshot published, or null if publishing is off. Safe to call
+     * from any thread.
+     */
+    public StorySnapshot getPublishedSnapshot() {
+        return publishedSnapshot;
+    }
+
     DebugMetadata currentDebugMetadata() {
         DebugMetadata dm;
 
@@ -1218,6 +1718,32 @@ public class Story implements VariablesState.VariableChanged {
         return state;
     }
 
+    byte[] getSaveDictionary() throws Exception {
+        if (saveDictionary == null) saveDictionary = CompressedSave.buildDictionary(this);
+
+        return saveDictionary;
+    }
+
+    /**
+     * Replaces the entire current state of the story, e.g. with one acquired from
+     * a StoryStatePool. The state must have been created for this story.
+     * <p>
+     * The flows of the replaced state evicted to the flow store are freed, so
+     * it can't be set again afterwards, only reset or loaded (as the pool does).
+     */
+    public void setState(StoryState state) throws Exception {
+        ifAsyncWeCant("set the state");
+
+        if (asyncSaving) throw new Exception("Can't set the state while saving on a background thread");
+
+        if (state.getStory() != this) throw new Exception("The state was created for a different story");
+
+        if (state != this.state) this.state.discardSpilledFlows();
+
+        this.state = state;
+        state.getVariablesState().setVariableChangedEvent(this);
+    }
+
     /**
      * The VariablesState Object contains all the global variables in the story.
      * However, note that there's more to the state of a Story than just the global
@@ -1400,6 +1926,18 @@ public class Story implements VariablesState.VariableChanged {
         removeVariableObserver(observer, null);
     }
 
+    boolean hasVariableObservers() {
+        return variableObservers != null && !variableObservers.isEmpty();
+    }
+
+    boolean isAsyncSaving() {
+        return asyncSaving;
+    }
+
+    boolean isRecording() {
+        return replayLog != null;
+    }
+
     @Override
     public void variableStateDidChangeEvent(String variableName, RTObject newValueObj) throws Exception {
         if (variableObservers == null) return;
@@ -2341,11 +2879,17 @@ public class Story implements VariablesState.VariableChanged {
         // TODO: Could make this possible
         ifAsyncWeCant("ResetState");
 
+        // The old state is dropped, so free its flows in the flow store
+        if (state != null) state.discardSpilledFlows();
         state = new StoryState(this);
 
         state.getVariablesState().setVariableChangedEvent(this);
 
         resetGlobals();
+
+        replayLog = null;
+
+        if (snapshotPublishing) publishSnapshot();
     }
 
     Pointer pointerAtPath(Path path) throws Exception {
@@ -2413,6 +2957,12 @@ public class Story implements VariablesState.VariableChanged {
             profiler.step(state.getCallStack());
         }
 
+        if (coverageCounts != null) {
+            int offset = pointer.container.coverageOffset;
+            if (offset >= 0 && pointer.index >= 0 && pointer.index < pointer.container.getContent().size())
+                coverageCounts[offset + pointer.index]++;
+        }
+
         // Is the current content Object:
         // - Normal content
         // - Or a logic/flow statement - if so, do it
@@ -2743,6 +3293,8 @@ public class Story implements VariablesState.VariableChanged {
 
     // Mark a container as having been visited
     void visitContainer(Container container, boolean atStart) throws Exception {
+        if (visitedContainers != null) visitedContainers.add(container);
+
         if (!container.getCountingAtStartOnly() || atStart) {
             if (container.getVisitsShouldBeCounted()) state.incrementVisitCountForContainer(container);
 
@@ -2809,6 +3361,8 @@ public class Story implements VariablesState.VariableChanged {
     public Object evaluateFunction(String functionName, StringBuilder textOutput, Object[] arguments) throws Exception {
         ifAsyncWeCant("evaluate a function");
 
+        long startNanos = latency != null ? System.nanoTime() : 0;
+
         if (functionName == null) {
             throw new Exception("Function is null");
         } else if (functionName.trim().isEmpty()) {
@@ -2823,14 +3377,26 @@ public class Story implements VariablesState.VariableChanged {
         ArrayList<RTObject> outputStreamBefore = new ArrayList<>(state.getOutputStream());
         state.resetOutput();
 
-        // State will temporarily replace the callstack in order to evaluate
-        state.startFunctionEvaluationFromGame(funcContainer, arguments);
+        // Called by an external function: its effects are part of the
+        // external's result, which is what gets replayed
+        ReplayLog recording = replayLog;
+        if (recursiveContinueCount > 0) replayLog = null;
 
-        // Evaluate the function, and collect the string output
-        while (canContinue()) {
-            String text = Continue();
+        functionEvaluationDepth++;
+
+        try {
+            // State will temporarily replace the callstack in order to evaluate
+            state.startFunctionEvaluationFromGame(funcContainer, arguments);
+
+            // Evaluate the function, and collect the string output
+            while (canContinue()) {
+                String text = Continue();
 
-            if (textOutput != null) textOutput.append(text);
+                if (textOutput != null) textOutput.append(text);
+            }
+        } finally {
+            replayLog = recording;
+            functionEvaluationDepth--;
         }
 
         // Restore the output stream in case this was called
@@ -2839,6 +3405,14 @@ public class Story implements VariablesState.VariableChanged {
 
         // Finish evaluation, and see whether anything was produced
         Object result = state.completeFunctionEvaluationFromGame();
+
+        if (recursiveContinueCount == 0 && functionEvaluationDepth == 0) {
+            if (replayLog != null) replayLog.addFunction(functionName, arguments, !canContinue());
+            if (snapshotPublishing) publishSnapshot();
+        }
+
+        if (latency != null) latency.getFunctionLatency().record(System.nanoTime() - startNanos);
+
         return result;
     }
 
@@ -2847,11 +3421,28 @@ public class Story implements VariablesState.VariableChanged {
     // - _stateSnapshotAtLastNewline (has older patch)
     // - _state (current, being patched)
     void stateSnapshot() {
+        Object span = null;
+        if (tracer != null)
+            span = tracer.begin(
+                    StoryTracer.Operation.Snapshot, null, state.getCurrentPathString(), getCurrentFlowName());
+
         stateSnapshotAtLastNewline = state;
         state = state.copyAndStartPatching(false);
+
+        if (metrics != null) continueStats.snapshots++;
+
+        if (tracer != null) tracer.end(span, StoryTracer.Operation.Snapshot, -1);
+
+        if (replayLog != null) replayLog.snapshot();
+        if (replaySource != null) replaySource.snapshot();
     }
 
     void restoreStateSnapshot() {
+        Object span = null;
+        if (tracer != null)
+            span = tracer.begin(
+                    StoryTracer.Operation.Restore, null, state.getCurrentPathString(), getCurrentFlowName());
+
         // Patched state had temporarily hijacked our
         // VariablesState and set its own callstack on it,
         // so we need to restore that.
@@ -2859,15 +3450,28 @@ public class Story implements VariablesState.VariableChanged {
         // need to give the VariablesState the old patch.
         stateSnapshotAtLastNewline.restoreAfterPatch();
 
+        // The visit counts go back to the snapshot's, so they count as changed
+        stateSnapshotAtLastNewline.setVisitCountsModCount(state.getVisitCountsModCount() + 1);
+
+        if (metrics != null) {
+            continueStats.restores++;
+            if (sawLookaheadUnsafeFunctionAfterNewline) continueStats.unsafeFunctionRewinds++;
+        }
+
         state = stateSnapshotAtLastNewline;
         stateSnapshotAtLastNewline = null;
 
+        if (replayLog != null) replayLog.restoreSnapshot();
+        if (replaySource != null) replaySource.restoreSnapshot();
+
         // If save completed while the above snapshot was
         // active, we need to apply any changes made since
         // the save was started but before the snapshot was made.
         if (!asyncSaving) {
             state.applyAnyPatch();
         }
+
+        if (tracer != null) tracer.end(span, StoryTracer.Operation.Restore, -1);
     }
 
     void discardSnapshot() {
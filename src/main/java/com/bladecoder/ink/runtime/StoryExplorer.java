@@ -0,0 +1,414 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays every branch of a story to find runtime errors, dead ends ("ran out of
+ * content") and knots and stitches that are never reached.
+ *
+ * At each choice point the state is saved and one task per choice is forked on
+ * a ForkJoinPool. States can't be moved between stories, so every worker thread
+ * plays its own Story, loading the saved state and choosing its choice. A state
+ * reached by more than one path is only explored (and saved) the first time,
+ * going by StoryState.getFingerprint(). Stories that loop are bounded by the
+ * maximum number of choices per playthrough and of states explored.
+ *
+ * External functions use their ink fallbacks, and shuffles follow the random
+ * seed of the first state.
+ */
+public class StoryExplorer {
+    private final String json;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int maxDepth = 100;
+    private int maxStates = 100000;
+
+    public StoryExplorer(String json) {
+        this.json = json;
+    }
+
+    /**
+     * Number of worker threads. Defaults to the number of processors.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Maximum number of choices made in a single playthrough.
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Maximum number of states explored, counting the start of the story.
+     */
+    public void setMaxStates(int maxStates) {
+        this.maxStates = maxStates;
+    }
+
+    public Report explore() throws Exception {
+        Story story = new Story(json);
+        Exploration exploration = new Exploration();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+        long start = System.nanoTime();
+
+        try {
+            exploration.created.set(1);
+            pool.invoke(exploration.new Step(null, new Branch(null, -1), null));
+        } finally {
+            pool.shutdown();
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        // Containers are different objects in each worker's story, so
+        // they're matched by path
+        Set<String> reached = new HashSet<>();
+        for (Worker worker : exploration.workers) {
+            for (Container c : worker.visited) reached.add(c.getPath().toString());
+        }
+
+        TreeSet<String> unreached = new TreeSet<>();
+        int total = 0;
+
+        for (Container knot : namedContainers(story.getMainContentContainer())) {
+            List<Container> containers = namedContainers(knot);
+            containers.add(knot);
+
+            for (Container c : containers) {
+                String path = c.getPath().toString();
+
+                total++;
+                if (!reached.contains(path)) unreached.add(path);
+            }
+        }
+
+        List<Issue> issues = new ArrayList<>(exploration.issues);
+        Collections.sort(issues, new Comparator<Issue>() {
+            @Override
+            public int compare(Issue a, Issue b) {
+                for (int i = 0; i < a.choices.size() && i < b.choices.size(); i++) {
+                    int c = a.choices.get(i).compareTo(b.choices.get(i));
+                    if (c != 0) return c;
+                }
+
+                int c = a.choices.size() - b.choices.size();
+                return c != 0 ? c : a.message.compareTo(b.message);
+            }
+        });
+
+        return new Report(
+                exploration.explored.get(),
+                exploration.duplicates.get(),
+                exploration.endings.get(),
+                exploration.truncated,
+                issues,
+                total,
+                new ArrayList<>(unreached),
+                elapsed);
+    }
+
+    // Knots of the root container or stitches of a knot
+    private static List<Container> namedContainers(Container container) {
+        List<Container> result = new ArrayList<>();
+
+        for (INamedContent named : container.getNamedContent().values()) {
+            if (named instanceof Container
+                    && !named.getName().startsWith("$")
+                    && !named.getName().equals("global decl")) result.add((Container) named);
+        }
+
+        return result;
+    }
+
+    /**
+     * The result of an exploration.
+     */
+    public static class Report {
+        private final int statesExplored;
+        private final int duplicateStates;
+        private final int endings;
+        private final boolean truncated;
+        private final List<Issue> issues;
+        private final int knotsAndStitches;
+        private final List<String> unreached;
+        private final long elapsedNanos;
+
+        Report(
+                int statesExplored,
+                int duplicateStates,
+                int endings,
+                boolean truncated,
+                List<Issue> issues,
+                int knotsAndStitches,
+                List<String> unreached,
+                long elapsedNanos) {
+            this.statesExplored = statesExplored;
+            this.duplicateStates = duplicateStates;
+            this.endings = endings;
+            this.truncated = truncated;
+            this.issues = issues;
+            this.knotsAndStitches = knotsAndStitches;
+            this.unreached = unreached;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Number of states played: the start of the story and one per choice
+         * taken.
+         */
+        public int getStatesExplored() {
+            return statesExplored;
+        }
+
+        /**
+         * Number of choice points reached again by another path, which weren't
+         * explored further.
+         */
+        public int getDuplicateStates() {
+            return duplicateStates;
+        }
+
+        /**
+         * Number of playthroughs that finished without errors.
+         */
+        public int getEndings() {
+            return endings;
+        }
+
+        /**
+         * True if some branches weren't explored because of the depth or
+         * states limits.
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        /**
+         * Errors found, ordered by the choices that lead to them.
+         */
+        public List<Issue> getIssues() {
+            return issues;
+        }
+
+        /**
+         * Fraction of the knots and stitches that were reached.
+         */
+        public float getCoverage() {
+            return knotsAndStitches == 0 ? 1f : 1f - (float) unreached.size() / knotsAndStitches;
+        }
+
+        /**
+         * Paths of the knots and stitches that were never reached, sorted.
+         */
+        public List<String> getUnreachedPaths() {
+            return unreached;
+        }
+
+        public float getElapsedMillis() {
+            return elapsedNanos / 1000000f;
+        }
+
+        public double getStatesPerSecond() {
+            return elapsedNanos == 0 ? 0 : statesExplored * 1e9 / elapsedNanos;
+        }
+    }
+
+    /**
+     * An error found while exploring.
+     */
+    public static class Issue {
+        private final List<Integer> choices;
+        private final String message;
+
+        Issue(List<Integer> choices, String message) {
+            this.choices = choices;
+            this.message = message;
+        }
+
+        /**
+         * Indices of the choices to take from the start of the story to get the
+         * error.
+         */
+        public List<Integer> getChoices() {
+            return choices;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return choices + ": " + message;
+        }
+    }
+
+    // A choice taken and the ones leading to it
+    private static class Branch {
+        final Branch parent;
+        final int choice;
+        final int depth;
+
+        Branch(Branch parent, int choice) {
+            this.parent = parent;
+            this.choice = choice;
+            this.depth = parent == null ? 0 : parent.depth + 1;
+        }
+
+        List<Integer> getChoices() {
+            Integer[] choices = new Integer[depth];
+
+            for (Branch b = this; b.parent != null; b = b.parent) choices[b.depth - 1] = b.choice;
+
+            List<Integer> result = new ArrayList<>(depth);
+            Collections.addAll(result, choices);
+            return result;
+        }
+    }
+
+    // Story played by one worker thread
+    private class Worker {
+        final Story story;
+        final HashSet<Container> visited = new HashSet<>();
+        final List<String> errors = new ArrayList<>();
+
+        Worker() throws Exception {
+            story = new Story(json);
+            story.setAllowExternalFunctionFallbacks(true);
+            story.setVisitedContainers(visited);
+            story.onError = new Error.ErrorHandler() {
+                @Override
+                public void error(String message, Error.ErrorType type) {
+                    if (type == Error.ErrorType.Error) errors.add(message);
+                }
+            };
+        }
+    }
+
+    private class Exploration {
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger explored = new AtomicInteger();
+        final AtomicInteger duplicates = new AtomicInteger();
+        final AtomicInteger endings = new AtomicInteger();
+        volatile boolean truncated;
+        final ConcurrentLinkedQueue<Issue> issues = new ConcurrentLinkedQueue<>();
+        final Set<Long> seen = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final ConcurrentLinkedQueue<Worker> workers = new ConcurrentLinkedQueue<>();
+
+        final ThreadLocal<Worker> worker = new ThreadLocal<>();
+
+        Worker getWorker() throws Exception {
+            Worker w = worker.get();
+
+            if (w == null) {
+                w = new Worker();
+                worker.set(w);
+                workers.add(w);
+            }
+
+            return w;
+        }
+
+        // Plays a branch from the saved state of its choice point, and forks
+        // a step for each of the choices it ends at
+        class Step extends CountedCompleter<Void> {
+            private static final long serialVersionUID = 1L;
+
+            private final Branch branch;
+            private final String savedState;
+
+            Step(CountedCompleter<?> parent, Branch branch, String savedState) {
+                super(parent);
+                this.branch = branch;
+                this.savedState = savedState;
+            }
+
+            @Override
+            public void compute() {
+                List<Issue> found = null;
+
+                try {
+                    found = play();
+                } catch (Exception e) {
+                    found = Collections.singletonList(new Issue(branch.getChoices(), e.toString()));
+                }
+
+                if (found != null) issues.addAll(found);
+
+                tryComplete();
+            }
+
+            private List<Issue> play() throws Exception {
+                Worker w = getWorker();
+                Story story = w.story;
+
+                w.errors.clear();
+                explored.incrementAndGet();
+
+                try {
+                    if (savedState == null) {
+                        story.resetState();
+                    } else {
+                        story.getState().loadJson(savedState);
+                        story.chooseChoiceIndex(branch.choice);
+                    }
+
+                    story.fastForward();
+                } catch (Exception e) {
+                    w.errors.add(e.getMessage() != null ? e.getMessage() : e.toString());
+                }
+
+                if (!w.errors.isEmpty()) {
+                    List<Issue> found = new ArrayList<>(w.errors.size());
+                    for (String error : w.errors) found.add(new Issue(branch.getChoices(), error));
+                    return found;
+                }
+
+                int choiceCount = story.getCurrentChoices().size();
+
+                if (choiceCount == 0) {
+                    endings.incrementAndGet();
+                    return null;
+                }
+
+                if (branch.depth >= maxDepth) {
+                    truncated = true;
+                    return null;
+                }
+
+                if (!seen.add(story.getState().getFingerprint())) {
+                    duplicates.incrementAndGet();
+                    return null;
+                }
+
+                String saved = story.getState().toJson();
+
+                for (int i = 0; i < choiceCount; i++) {
+                    if (created.incrementAndGet() > maxStates) {
+                        truncated = true;
+                        break;
+                    }
+
+                    addToPendingCount(1);
+                    new Step(this, new Branch(branch, i), saved).fork();
+                }
+
+                return null;
+            }
+        }
+    }
+}
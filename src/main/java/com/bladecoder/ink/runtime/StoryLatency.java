@@ -0,0 +1,54 @@
+package com.bladecoder.ink.runtime;
+
+/**
+ * Latency histograms of the calls the game makes to a story. Set with
+ * Story.setLatency(). Each story needs its own, since the histograms aren't
+ * thread safe, but they can be added together for a report.
+ */
+public class StoryLatency {
+    private final LatencyHistogram continueLatency = new LatencyHistogram();
+    private final LatencyHistogram choiceLatency = new LatencyHistogram();
+    private final LatencyHistogram functionLatency = new LatencyHistogram();
+
+    /**
+     * Calls to Continue() and continueAsync(). The ones run by an evaluated
+     * function or an external function aren't counted on their own.
+     */
+    public LatencyHistogram getContinueLatency() {
+        return continueLatency;
+    }
+
+    /**
+     * Calls to chooseChoiceIndex().
+     */
+    public LatencyHistogram getChoiceLatency() {
+        return choiceLatency;
+    }
+
+    /**
+     * Calls to evaluateFunction().
+     */
+    public LatencyHistogram getFunctionLatency() {
+        return functionLatency;
+    }
+
+    /**
+     * Adds the counts of another story's histograms to these.
+     */
+    public void add(StoryLatency other) {
+        continueLatency.add(other.continueLatency);
+        choiceLatency.add(other.choiceLatency);
+        functionLatency.add(other.functionLatency);
+    }
+
+    public void reset() {
+        continueLatency.reset();
+        choiceLatency.reset();
+        functionLatency.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "Continue: " + continueLatency + "\nChoice: " + choiceLatency + "\nFunction: " + functionLatency;
+    }
+}
@@ -0,0 +1,116 @@
+package com.bladecoder.ink.runtime;
+
+/**
+ * Told what each Continue() did, for bridging to a metrics system. Set with
+ * Story.setMetrics(). When it isn't set, nothing is counted.
+ *
+ * It's called at the end of every Continue(), and of every call to
+ * continueAsync(), on the thread running the story. The steps of continues
+ * run by external functions or by evaluateFunction() during a Continue() are
+ * counted as part of it, and aren't reported on their own.
+ */
+public interface StoryMetrics {
+    /**
+     * @param stats What the Continue() did. It's reused for the next one, so
+     *              it mustn't be kept.
+     */
+    void continued(Story story, ContinueStats stats);
+
+    /**
+     * Counters and timings of a single Continue().
+     */
+    final class ContinueStats {
+        int steps;
+        int snapshots;
+        int restores;
+        int unsafeFunctionRewinds;
+        int outputStreamLength;
+        int maxEvaluationStackDepth;
+        int maxCallStackDepth;
+        long startNanos;
+        long nanos;
+
+        ContinueStats() {}
+
+        void start() {
+            steps = 0;
+            snapshots = 0;
+            restores = 0;
+            unsafeFunctionRewinds = 0;
+            maxEvaluationStackDepth = 0;
+            maxCallStackDepth = 0;
+            startNanos = System.nanoTime();
+        }
+
+        void step(StoryState state) {
+            steps++;
+
+            int evaluationStackDepth = state.getEvaluationStack().size();
+            if (evaluationStackDepth > maxEvaluationStackDepth) maxEvaluationStackDepth = evaluationStackDepth;
+
+            int callStackDepth = state.getCallStackDepth();
+            if (callStackDepth > maxCallStackDepth) maxCallStackDepth = callStackDepth;
+        }
+
+        void end(StoryState state) {
+            outputStreamLength = state.getOutputStream().size();
+            nanos = System.nanoTime() - startNanos;
+        }
+
+        /**
+         * Content steps run.
+         */
+        public int getSteps() {
+            return steps;
+        }
+
+        /**
+         * State snapshots taken after a newline, to look ahead for glue.
+         */
+        public int getSnapshots() {
+            return snapshots;
+        }
+
+        /**
+         * Times the story was rewound to a snapshot, because the line had
+         * ended or for the reason below.
+         */
+        public int getRestores() {
+            return restores;
+        }
+
+        /**
+         * Restores caused by calling an external function that isn't
+         * lookahead safe after a newline. The function's line is run again in
+         * the next Continue().
+         */
+        public int getUnsafeFunctionRewinds() {
+            return unsafeFunctionRewinds;
+        }
+
+        /**
+         * Objects in the output stream at the end.
+         */
+        public int getOutputStreamLength() {
+            return outputStreamLength;
+        }
+
+        /**
+         * Highest evaluation stack depth after a step.
+         */
+        public int getMaxEvaluationStackDepth() {
+            return maxEvaluationStackDepth;
+        }
+
+        /**
+         * Highest callstack depth after a step.
+         */
+        public int getMaxCallStackDepth() {
+            return maxCallStackDepth;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many independent sessions of the same compiled story concurrently.
+ *
+ * Story isn't thread safe, and the runtime objects it's built from cache
+ * resolved paths lazily, so every session plays its own Story parsed from the
+ * shared JSON. Sessions run as tasks of an ExecutorService: by default a fixed
+ * pool with one thread per processor, or any executor passed in, e.g.
+ * Executors.newVirtualThreadPerTaskExecutor() on Java 21+ to run each session
+ * on its own virtual thread.
+ */
+public class StoryRuntime {
+    private final String json;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * A session: plays a story from start to finish and returns its result.
+     */
+    public interface Session<T> {
+        T run(Story story) throws Exception;
+    }
+
+    /**
+     * Runs sessions on a fixed pool with one thread per available processor.
+     */
+    public StoryRuntime(String json) throws Exception {
+        this(json, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()), true);
+    }
+
+    /**
+     * Runs sessions on the given executor, which is left running by shutdown().
+     */
+    public StoryRuntime(String json, ExecutorService executor) throws Exception {
+        this(json, executor, false);
+    }
+
+    private StoryRuntime(String json, ExecutorService executor, boolean ownsExecutor) throws Exception {
+        this.json = json;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+
+        // Fail early on a broken story. This also builds the static tables
+        // shared by all stories before any session starts.
+        new Story(json);
+    }
+
+    /**
+     * Creates a new Story for the calling thread only.
+     */
+    public Story newStory() throws Exception {
+        return new Story(json);
+    }
+
+    /**
+     * Starts a session on a new Story.
+     */
+    public <T> Future<T> submit(final Session<T> session) {
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return session.run(newStory());
+            }
+        });
+    }
+
+    /**
+     * Runs all the sessions concurrently and returns their results in the same
+     * order. If any session fails, its exception is thrown once all of them
+     * have finished.
+     */
+    public <T> List<T> runAll(List<? extends Session<T>> sessions) throws Exception {
+        List<Future<T>> futures = new ArrayList<>(sessions.size());
+
+        for (Session<T> session : sessions) futures.add(submit(session));
+
+        List<T> results = new ArrayList<>(sessions.size());
+        Exception error = null;
+
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (error == null)
+                    error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        if (error != null) throw error;
+
+        return results;
+    }
+
+    /**
+     * Shuts the default pool down once running sessions finish. An executor
+     * passed in is left to its owner.
+     */
+    public void shutdown() {
+        if (ownsExecutor) executor.shutdown();
+    }
+}
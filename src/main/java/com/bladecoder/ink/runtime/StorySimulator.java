@@ -0,0 +1,385 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many random playthroughs of a story in parallel and aggregates the
+ * final values of its numeric globals, for balancing.
+ *
+ * Runs are seeded: run i uses seed + i both for the story's random numbers
+ * and for picking choices, so results don't depend on the number of threads.
+ * Each thread parses the story once and resets the state in place between
+ * runs. Runs are played with Story.fastForward(), without building any text.
+ *
+ * External functions use their ink fallbacks.
+ */
+public class StorySimulator {
+    private static final int MAX_ERRORS_KEPT = 20;
+
+    private final String json;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int maxChoices = 1000;
+    private long seed;
+    private ChoicePolicy choicePolicy = new ChoicePolicy() {
+        @Override
+        public int choose(Story story, List<Choice> choices, Random random) {
+            return random.nextInt(choices.size());
+        }
+    };
+
+    /**
+     * Picks the choice to take at each choice point of a run.
+     */
+    public interface ChoicePolicy {
+        /**
+         * @param random The run's random generator. Use it for any random
+         *               decision so the run can be reproduced.
+         * @return Index of the choice to take.
+         */
+        int choose(Story story, List<Choice> choices, Random random) throws Exception;
+    }
+
+    public StorySimulator(String json) {
+        this.json = json;
+    }
+
+    /**
+     * Number of threads. Defaults to the number of processors.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Runs are stopped (and counted as truncated) after this many choices.
+     */
+    public void setMaxChoices(int maxChoices) {
+        this.maxChoices = maxChoices;
+    }
+
+    /**
+     * Seed of the first run. Defaults to 0.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Defaults to picking uniformly at random.
+     */
+    public void setChoicePolicy(ChoicePolicy choicePolicy) {
+        this.choicePolicy = choicePolicy;
+    }
+
+    public Result run(final int runs) throws Exception {
+        final AtomicInteger nextRun = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        List<Future<Result>> futures = new ArrayList<>(parallelism);
+
+        long start = System.nanoTime();
+
+        try {
+            for (int i = 0; i < parallelism; i++) {
+                futures.add(executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() throws Exception {
+                        Result result = new Result();
+                        Worker worker = new Worker();
+
+                        for (int run = nextRun.getAndIncrement(); run < runs; run = nextRun.getAndIncrement())
+                            worker = worker.play(seed + run, result);
+
+                        return result;
+                    }
+                }));
+            }
+
+            Result total = new Result();
+
+            for (Future<Result> future : futures) {
+                try {
+                    total.merge(future.get());
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+
+            total.elapsedNanos = System.nanoTime() - start;
+
+            return total;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Story played by one thread
+    private class Worker {
+        final Story story;
+        final List<String> errors = new ArrayList<>();
+
+        Worker() throws Exception {
+            story = new Story(json);
+            story.setAllowExternalFunctionFallbacks(true);
+            story.onError = new Error.ErrorHandler() {
+                @Override
+                public void error(String message, Error.ErrorType type) {
+                    if (type == Error.ErrorType.Error) errors.add(message);
+                }
+            };
+        }
+
+        // Returns the worker to use for the next run: a new one if the story
+        // was left in the middle of an evaluation by an exception
+        Worker play(long runSeed, Result result) throws Exception {
+            Random random = new Random(runSeed);
+            StoryState state = story.getState();
+            int choices = 0;
+
+            errors.clear();
+            state.reset();
+            state.setStorySeed((int) runSeed);
+
+            try {
+                while (true) {
+                    story.fastForward();
+
+                    List<Choice> current = story.getCurrentChoices();
+
+                    if (!errors.isEmpty() || current.isEmpty()) break;
+
+                    if (choices == maxChoices) {
+                        result.truncatedRuns++;
+                        break;
+                    }
+
+                    story.chooseChoiceIndex(choicePolicy.choose(story, current, random));
+                    choices++;
+                }
+            } catch (Exception e) {
+                errors.add(e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+
+            result.runs++;
+            result.choices += choices;
+
+            if (!errors.isEmpty()) {
+                result.failedRuns++;
+                if (result.errors.size() < MAX_ERRORS_KEPT)
+                    result.errors.add("Seed " + runSeed + ": " + errors.get(0));
+
+                return new Worker();
+            }
+
+            VariablesState variables = state.getVariablesState();
+
+            for (Iterator<String> it = variables.iterator(); it.hasNext(); ) {
+                String name = it.next();
+                Object value = variables.get(name);
+
+                if (value instanceof Integer || value instanceof Float || value instanceof Boolean)
+                    result.stats(name).add(value);
+            }
+
+            return this;
+        }
+    }
+
+    /**
+     * Aggregated results of all the runs. Runs that failed with an error don't
+     * count towards the statistics.
+     */
+    public static class Result {
+        private int runs;
+        private int failedRuns;
+        private int truncatedRuns;
+        private long choices;
+        private long elapsedNanos;
+        private final List<String> errors = new ArrayList<>();
+        private final HashMap<String, VariableStats> stats = new HashMap<>();
+
+        Result() {}
+
+        public int getRuns() {
+            return runs;
+        }
+
+        public int getFailedRuns() {
+            return failedRuns;
+        }
+
+        /**
+         * Runs stopped after the maximum number of choices.
+         */
+        public int getTruncatedRuns() {
+            return truncatedRuns;
+        }
+
+        /**
+         * Average number of choices taken per run.
+         */
+        public double getMeanChoices() {
+            return runs == 0 ? 0 : (double) choices / runs;
+        }
+
+        /**
+         * First errors found, with the seed of the run.
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        /**
+         * Names of the int, float and bool globals.
+         */
+        public Set<String> getVariableNames() {
+            return Collections.unmodifiableSet(stats.keySet());
+        }
+
+        /**
+         * Statistics of the final value of a global, or null if it isn't an
+         * int, float or bool.
+         */
+        public VariableStats getStats(String variableName) {
+            return stats.get(variableName);
+        }
+
+        public float getElapsedMillis() {
+            return elapsedNanos / 1000000f;
+        }
+
+        public double getRunsPerSecond() {
+            return elapsedNanos == 0 ? 0 : runs * 1e9 / elapsedNanos;
+        }
+
+        VariableStats stats(String name) {
+            VariableStats s = stats.get(name);
+
+            if (s == null) {
+                s = new VariableStats();
+                stats.put(name, s);
+            }
+
+            return s;
+        }
+
+        void merge(Result other) {
+            runs += other.runs;
+            failedRuns += other.failedRuns;
+            truncatedRuns += other.truncatedRuns;
+            choices += other.choices;
+
+            for (String error : other.errors) {
+                if (errors.size() < MAX_ERRORS_KEPT) errors.add(error);
+            }
+
+            for (Entry<String, VariableStats> e : other.stats.entrySet()) stats(e.getKey()).merge(e.getValue());
+        }
+    }
+
+    /**
+     * Count, mean, variance and range of the final values of a global. Int and
+     * bool globals (true counting as 1) also keep how many runs ended with
+     * each value.
+     */
+    public static class VariableStats {
+        private long count;
+        private double mean;
+        private double m2;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private final HashMap<Integer, Long> histogram = new HashMap<>();
+
+        VariableStats() {}
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * Sample variance.
+         */
+        public double getVariance() {
+            return count < 2 ? 0 : m2 / (count - 1);
+        }
+
+        public double getStandardDeviation() {
+            return Math.sqrt(getVariance());
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        /**
+         * Number of runs that ended with each value, sorted by value. Empty for
+         * float globals.
+         */
+        public SortedMap<Integer, Long> getHistogram() {
+            return new TreeMap<>(histogram);
+        }
+
+        void add(Object value) {
+            double x;
+
+            if (value instanceof Float) {
+                x = (Float) value;
+            } else {
+                int i = value instanceof Boolean ? ((Boolean) value ? 1 : 0) : (Integer) value;
+                Long c = histogram.get(i);
+                histogram.put(i, c == null ? 1 : c + 1);
+                x = i;
+            }
+
+            // Welford's online algorithm
+            count++;
+            double delta = x - mean;
+            mean += delta / count;
+            m2 += delta * (x - mean);
+
+            if (x < min) min = x;
+            if (x > max) max = x;
+        }
+
+        void merge(VariableStats other) {
+            if (other.count == 0) return;
+
+            long n = count + other.count;
+            double delta = other.mean - mean;
+
+            mean += delta * other.count / n;
+            m2 += other.m2 + delta * delta * count * other.count / n;
+            count = n;
+
+            if (other.min < min) min = other.min;
+            if (other.max > max) max = other.max;
+
+            for (Entry<Integer, Long> e : other.histogram.entrySet()) {
+                Long c = histogram.get(e.getKey());
+                histogram.put(e.getKey(), c == null ? e.getValue() : c + e.getValue());
+            }
+        }
+    }
+}
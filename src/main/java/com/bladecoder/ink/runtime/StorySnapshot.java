@@ -0,0 +1,132 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable copy of the parts of a story's state that monitoring code
+ * reads: globals, visit counts, the current text, tags and choices.
+ *
+ * Published by Story after each Continue() and choice when snapshot
+ * publishing is on, so other threads can read it at any time without
+ * locking while the story keeps running. Globals and visit counts that
+ * haven't changed since the previous snapshot (going by their modification
+ * counters) are shared with it rather than copied again.
+ */
+public final class StorySnapshot {
+    private final Map<String, Object> globals;
+    private final Object globalsSource;
+    private final long globalsModCount;
+    private final Map<String, Integer> visitCounts;
+    private final Object visitCountsSource;
+    private final long visitCountsModCount;
+    private final String currentText;
+    private final List<String> currentTags;
+    private final List<String> currentChoices;
+    private final String currentFlowName;
+    private final int currentTurnIndex;
+    private final boolean canContinue;
+
+    StorySnapshot(Story story, StorySnapshot previous) throws Exception {
+        StoryState state = story.getState();
+        VariablesState variables = state.getVariablesState();
+
+        globalsSource = variables;
+        globalsModCount = variables.getModCount();
+
+        if (previous != null
+                && previous.globalsSource == globalsSource
+                && previous.globalsModCount == globalsModCount) {
+            globals = previous.globals;
+        } else {
+            HashMap<String, Object> g = new HashMap<>();
+
+            for (Iterator<String> it = variables.iterator(); it.hasNext(); ) {
+                String name = it.next();
+                Object value = variables.get(name);
+
+                // Lists are the only mutable values
+                if (value instanceof InkList) value = new InkList((InkList) value);
+
+                g.put(name, value);
+            }
+
+            globals = Collections.unmodifiableMap(g);
+        }
+
+        visitCountsSource = state.getVisitCountsSource();
+        visitCountsModCount = state.getVisitCountsModCount();
+
+        if (previous != null
+                && previous.visitCountsSource == visitCountsSource
+                && previous.visitCountsModCount == visitCountsModCount) {
+            visitCounts = previous.visitCounts;
+        } else {
+            visitCounts = Collections.unmodifiableMap(state.copyVisitCounts());
+        }
+
+        currentText = story.getCurrentText();
+        currentTags = Collections.unmodifiableList(new ArrayList<>(story.getCurrentTags()));
+
+        List<String> choices = new ArrayList<>();
+        for (Choice c : story.getCurrentChoices()) choices.add(c.getText());
+        currentChoices = Collections.unmodifiableList(choices);
+
+        currentFlowName = story.getCurrentFlowName();
+        currentTurnIndex = state.getCurrentTurnIndex();
+        canContinue = story.canContinue();
+    }
+
+    /**
+     * The value of a global, as VariablesState.get() returns it. InkList values
+     * are copies and mustn't be changed.
+     */
+    public Object getGlobal(String variableName) {
+        return globals.get(variableName);
+    }
+
+    public Set<String> getGlobalNames() {
+        return globals.keySet();
+    }
+
+    /**
+     * Same as StoryState.visitCountAtPathString().
+     */
+    public int visitCountAtPathString(String pathString) {
+        Integer count = visitCounts.get(pathString);
+
+        return count == null ? 0 : count;
+    }
+
+    public String getCurrentText() {
+        return currentText;
+    }
+
+    public List<String> getCurrentTags() {
+        return currentTags;
+    }
+
+    /**
+     * Text of the current choices.
+     */
+    public List<String> getCurrentChoices() {
+        return currentChoices;
+    }
+
+    public String getCurrentFlowName() {
+        return currentFlowName;
+    }
+
+    public int getCurrentTurnIndex() {
+        return currentTurnIndex;
+    }
+
+    public boolean canContinue() {
+        return canContinue;
+    }
+}
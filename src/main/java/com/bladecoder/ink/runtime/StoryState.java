@@ -3,14 +3,22 @@ package com.bladecoder.ink.runtime;
 import com.bladecoder.ink.runtime.CallStack.Element;
 import com.bladecoder.ink.runtime.SimpleJson.InnerWriter;
 import com.bladecoder.ink.runtime.SimpleJson.Writer;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * All story state information is included in the StoryState class, including
@@ -55,6 +63,18 @@ public class StoryState {
     private HashMap<String, Integer> visitCounts;
     private String currentText;
 
+    // Sums of the fingerprint hashes of the visit counts and turn indices,
+    // including any patched ones
+    private long visitCountsHash;
+    private long turnIndicesHash;
+
+    // Bumped on every change to the visit counts, patched or not, so
+    // StorySnapshot can tell exactly when they haven't changed
+    private long visitCountsModCount;
+
+    // Set while fast forwarding: output outside string evaluation is dropped
+    private boolean silentOutput;
+
     private boolean outputStreamTextDirty = true;
     private boolean outputStreamTagsDirty = true;
     private List<String> currentTags;
@@ -84,14 +104,70 @@ public class StoryState {
         currentTurnIndex = -1;
 
         // Seed the shuffle random numbers
-        long timeSeed = System.currentTimeMillis();
+        storySeed = generateStorySeed();
+        previousRandom = 0;
+
+        goToStart();
+    }
+
+    /**
+     * Puts the state back to how it was when the story was first created,
+     * clearing and refilling the existing flow, callstack, maps and globals
+     * rather than allocating new ones. Global declarations aren't re-run: globals
+     * are reset to the default values taken when the story was created.
+     */
+    void reset() throws Exception {
+        currentErrors = null;
+        currentWarnings = null;
+        patch = null;
+
+        discardSpilledFlows();
+        namedFlows = null;
+        currentFlow.name = kDefaultFlowName;
+        currentFlow.callStack.resetAll();
+        currentFlow.outputStream.clear();
+        currentFlow.currentChoices.clear();
+        outputStreamDirty();
+        aliveFlowNamesDirty = true;
+
+        variablesState.resetGlobals();
+        variablesState.setCallStack(currentFlow.callStack);
+
+        evaluationStack.clear();
+        divertedPointer.assign(Pointer.Null);
 
-        storySeed = new Random(timeSeed).nextInt() % 100;
+        visitCounts.clear();
+        turnIndices.clear();
+        visitCountsHash = 0;
+        turnIndicesHash = 0;
+        visitCountsModCount++;
+        currentTurnIndex = -1;
+        didSafeExit = false;
+
+        storySeed = generateStorySeed();
         previousRandom = 0;
 
         goToStart();
     }
 
+    // Cleared before loading a save into a reused state, since loading doesn't
+    // touch errors, warnings or patches.
+    void resetTransientState() {
+        currentErrors = null;
+        currentWarnings = null;
+        patch = null;
+        variablesState.setPatch(null);
+        didSafeExit = false;
+    }
+
+    private static int generateStorySeed() {
+        return ThreadLocalRandom.current().nextInt() % 100;
+    }
+
+    Story getStory() {
+        return story;
+    }
+
     int getCallStackDepth() {
         return getCallStack().getDepth();
     }
@@ -142,7 +218,7 @@ public class StoryState {
         // (Assuming we're in multi-flow mode at all. If we're not then
         // the above copy is simply the default flow copy and we're done)
         if (namedFlows != null) {
-            copy.namedFlows = new HashMap<>();
+            copy.namedFlows = newFlowsMap();
             for (Map.Entry<String, Flow> namedFlow : namedFlows.entrySet())
                 copy.namedFlows.put(namedFlow.getKey(), namedFlow.getValue());
             copy.namedFlows.put(currentFlow.name, copy.currentFlow);
@@ -164,6 +240,7 @@ public class StoryState {
         // (though the callstack will be modified)
         copy.variablesState = variablesState;
         copy.variablesState.setCallStack(copy.getCallStack());
+        copy.patch.setGlobalsHash(variablesState.getGlobalsHash());
         copy.variablesState.setPatch(copy.patch);
 
         copy.evaluationStack.addAll(evaluationStack);
@@ -176,12 +253,16 @@ public class StoryState {
         // while in patch mode
         copy.visitCounts = visitCounts;
         copy.turnIndices = turnIndices;
+        copy.visitCountsHash = visitCountsHash;
+        copy.turnIndicesHash = turnIndicesHash;
+        copy.visitCountsModCount = visitCountsModCount;
 
         copy.currentTurnIndex = currentTurnIndex;
         copy.storySeed = storySeed;
         copy.previousRandom = previousRandom;
 
         copy.setDidSafeExit(didSafeExit);
+        copy.silentOutput = silentOutput;
 
         return copy;
     }
@@ -337,6 +418,15 @@ public class StoryState {
         return getCallStack().getCurrentElement().currentPointer;
     }
 
+    /**
+     * Path of the content the story is at, or null if it has nothing left to run.
+     */
+    public String getCurrentPathString() {
+        Pointer pointer = getCurrentPointer();
+
+        return pointer.isNull() ? null : pointer.getPath().toString();
+    }
+
     List<String> getCurrentTags() {
         if (outputStreamTagsDirty) {
             currentTags = new ArrayList<>();
@@ -431,11 +521,13 @@ public class StoryState {
         if (flowName == null) throw new Exception("Must pass a non-null string to Story.SwitchFlow");
 
         if (namedFlows == null) {
-            namedFlows = new HashMap<>();
+            namedFlows = newFlowsMap();
             namedFlows.put(kDefaultFlowName, currentFlow);
         }
 
         if (flowName.equals(currentFlow.name)) {
+            // Still counts as a use, for the flow cache
+            namedFlows.get(flowName);
             return;
         }
 
@@ -444,6 +536,9 @@ public class StoryState {
             flow = new Flow(flowName, story);
             namedFlows.put(flowName, flow);
             aliveFlowNamesDirty = true;
+        } else if (!flow.isLoaded()) {
+            flow = flow.load(story);
+            namedFlows.put(flowName, flow);
         }
 
         currentFlow = flow;
@@ -451,6 +546,101 @@ public class StoryState {
 
         // Cause text to be regenerated from output stream if necessary
         outputStreamDirty();
+
+        if (story.getFlowStore() != null) evictLeastRecentlyUsedFlows();
+    }
+
+    String currentFlowToJson() throws Exception {
+        SimpleJson.Writer writer = new SimpleJson.Writer();
+        currentFlow.writeJson(writer);
+        return writer.toString();
+    }
+
+    // Same as toJson, but with only the current flow
+    String toJsonWithCurrentFlowOnly() throws Exception {
+        SimpleJson.Writer writer = new SimpleJson.Writer();
+        writeJson(writer, true);
+        return writer.toString();
+    }
+
+    // Loads the current flow and the state shared by every flow (globals, visit
+    // counts, turn indices, random seed...) from a save of another story with
+    // the same content, leaving the other flows as they are.
+    @SuppressWarnings("unchecked")
+    void loadCurrentFlowJson(String json) throws Exception {
+        HashMap<String, Object> jObject = SimpleJson.textToDictionary(json);
+        HashMap<String, Object> flowsObj = (HashMap<String, Object>) jObject.get("flows");
+        HashMap<String, Object> flowObj = (HashMap<String, Object>) flowsObj.get(currentFlow.name);
+
+        if (flowObj == null) throw new Exception("The save doesn't have the current flow: " + currentFlow.name);
+
+        Flow flow = new Flow(currentFlow.name, story, flowObj);
+
+        if (namedFlows != null) namedFlows.put(flow.name, flow);
+
+        currentFlow = flow;
+        outputStreamDirty();
+
+        loadSharedJsonObj(jObject);
+    }
+
+    // Puts a flow saved by another story with the same content (see
+    // currentFlowToJson) in place of the named one, or adds it. Like
+    // switchFlowInternal, it counts as a use of the flow.
+    void replaceFlow(String flowName, String json) throws Exception {
+        if (namedFlows == null) {
+            namedFlows = newFlowsMap();
+            namedFlows.put(kDefaultFlowName, currentFlow);
+        }
+
+        Flow flow = new Flow(flowName, json);
+
+        if (flowName.equals(currentFlow.name)) {
+            flow = flow.load(story);
+            currentFlow = flow;
+            variablesState.setCallStack(currentFlow.callStack);
+            outputStreamDirty();
+        }
+
+        Flow replaced = namedFlows.put(flowName, flow);
+        if (replaced == null) aliveFlowNamesDirty = true;
+        else if (patch == null) replaced.discard();
+        else patch.addRemovedFlow(replaced);
+    }
+
+    // Flow cache: spills the least recently used flows to the flow store, so that
+    // no more than the configured number (current flow included) stay loaded
+    private void evictLeastRecentlyUsedFlows() throws Exception {
+        int loadedCount = 0;
+        for (Flow flow : namedFlows.values()) {
+            if (flow.isLoaded()) loadedCount++;
+        }
+
+        int toEvict = loadedCount - story.getMaxLoadedFlows();
+        if (toEvict <= 0) return;
+
+        // namedFlows is kept in access order, least recently used first
+        List<Flow> evicted = new ArrayList<>(toEvict);
+        for (Flow flow : namedFlows.values()) {
+            if (evicted.size() == toEvict) break;
+
+            if (flow.isLoaded() && flow != currentFlow) evicted.add(flow);
+        }
+
+        for (Flow flow : evicted) namedFlows.put(flow.name, flow.spill(story.getFlowStore()));
+    }
+
+    // Frees the flow store entries of spilled flows that are about to be dropped.
+    // Not while patching, since the flows are then shared with the state snapshot.
+    void discardSpilledFlows() throws Exception {
+        if (namedFlows == null || patch != null) return;
+
+        for (Flow flow : namedFlows.values()) flow.discard();
+    }
+
+    // Flows are kept in access order, for the flow cache
+    private static HashMap<String, Flow> newFlowsMap() {
+        return new LinkedHashMap<>(16, 0.75f, true);
     }
 
     void switchToDefaultFlowInternal() throws Exception {
@@ -468,7 +658,12 @@ public class StoryState {
             switchToDefaultFlowInternal();
         }
 
-        namedFlows.remove(flowName);
+        Flow removed = namedFlows.remove(flowName);
+        if (removed != null) {
+            if (patch == null) removed.discard();
+            else patch.addRemovedFlow(removed);
+        }
+
         aliveFlowNamesDirty = true;
     }
 
@@ -476,6 +671,14 @@ public class StoryState {
         return currentErrors != null && !currentErrors.isEmpty();
     }
 
+    boolean isSilentOutput() {
+        return silentOutput;
+    }
+
+    void setSilentOutput(boolean silentOutput) {
+        this.silentOutput = silentOutput;
+    }
+
     boolean inStringEvaluation() {
         for (int i = getOutputStream().size() - 1; i >= 0; i--) {
             ControlCommand cmd = getOutputStream().get(i) instanceof ControlCommand
@@ -496,8 +699,48 @@ public class StoryState {
      * @param json The JSON String to load.
      */
     public void loadJson(String json) throws Exception {
-        HashMap<String, Object> jObject = SimpleJson.textToDictionary(json);
-        loadJsonObj(jObject);
+        StoryTracer tracer = story.getTracer();
+        Object span = tracer != null ? tracer.begin(StoryTracer.Operation.Load, null, null, null) : null;
+
+        try {
+            HashMap<String, Object> jObject = SimpleJson.textToDictionary(json);
+            loadJsonObj(jObject);
+        } finally {
+            if (tracer != null) tracer.end(span, StoryTracer.Operation.Load, json.length());
+        }
+    }
+
+    /**
+     * Loads a previously saved state in JSON format, reading it as UTF-8 straight
+     * from a stream. Unlike loadJson(String), the save is never held as a whole
+     * String or parsed into an intermediate HashMap: flows, threads, visit counts
+     * and globals are built while the stream is read. The stream isn't closed.
+     *
+     * @param stream The stream to read the JSON save from.
+     */
+    public void loadJson(InputStream stream) throws Exception {
+        loadJson(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Loads a previously saved state in JSON format, reading it as UTF-8 straight
+     * from a channel. See loadJson(InputStream). The channel isn't closed.
+     *
+     * @param channel The channel to read the JSON save from.
+     */
+    public void loadJson(ReadableByteChannel channel) throws Exception {
+        loadJson(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1));
+    }
+
+    void loadJson(Reader reader) throws Exception {
+        StoryTracer tracer = story.getTracer();
+        Object span = tracer != null ? tracer.begin(StoryTracer.Operation.Load, null, null, null) : null;
+
+        try {
+            loadJsonStream(new SimpleJson.StreamReader(reader));
+        } finally {
+            if (tracer != null) tracer.end(span, StoryTracer.Operation.Load, -1);
+        }
     }
 
     List<Choice> getCurrentChoices() {
@@ -546,18 +789,26 @@ public class StoryState {
     }
 
     int getStorySeed() {
+        if (variablesState.getAccessLog() != null) variablesState.getAccessLog().seedRead = true;
+
         return storySeed;
     }
 
     void setStorySeed(int s) {
+        if (variablesState.getAccessLog() != null) variablesState.getAccessLog().writeSeed(storySeed);
+
         storySeed = s;
     }
 
     int getPreviousRandom() {
+        if (variablesState.getAccessLog() != null) variablesState.getAccessLog().previousRandomRead = true;
+
         return previousRandom;
     }
 
     void setPreviousRandom(int i) {
+        if (variablesState.getAccessLog() != null) variablesState.getAccessLog().writePreviousRandom(previousRandom);
+
         previousRandom = i;
     }
 
@@ -565,6 +816,40 @@ public class StoryState {
         return currentTurnIndex;
     }
 
+    /**
+     * A 64-bit hash of everything that decides how the story plays on from
+     * here: the current flow's callstack and choices, the evaluation stack,
+     * globals, visit counts, turn indices and the random seed. States with the
+     * same fingerprint continue the same way, so explorers and caches can skip
+     * states they have already seen. The output text and other flows aren't
+     * included.
+     *
+     * Globals, visit counts and turn indices are hashed incrementally as they
+     * change, so this only walks the callstack and choices.
+     */
+    public long getFingerprint() {
+        long h = Fingerprint.combine(variablesState.getGlobalsHash(), visitCountsHash);
+        h = Fingerprint.combine(h, turnIndicesHash);
+        h = Fingerprint.combine(h, currentTurnIndex);
+        h = Fingerprint.combine(h, storySeed);
+        h = Fingerprint.combine(h, previousRandom);
+        h = Fingerprint.combine(h, didSafeExit ? 1 : 0);
+        h = Fingerprint.combine(h, Fingerprint.pointer(divertedPointer));
+        h = Fingerprint.combine(h, Fingerprint.values(evaluationStack));
+        h = Fingerprint.combine(h, Fingerprint.string(currentFlow.name));
+        h = Fingerprint.combine(h, currentFlow.callStack.getFingerprint());
+
+        for (Choice c : currentFlow.currentChoices) {
+            h = Fingerprint.combine(h, Fingerprint.string(c.getText()));
+            h = Fingerprint.combine(h, Fingerprint.path(c.targetPath));
+            h = Fingerprint.combine(h, Fingerprint.string(c.sourcePath));
+            h = Fingerprint.combine(h, c.isInvisibleDefault ? 1 : 0);
+            h = Fingerprint.combine(h, c.getThreadAtGeneration().getFingerprint());
+        }
+
+        return h;
+    }
+
     boolean outputStreamContainsContent() {
         for (RTObject content : getOutputStream()) {
             if (content instanceof StringValue) return true;
@@ -652,6 +937,13 @@ public class StoryState {
     // Push to output stream, but split out newlines in text for consistency
     // in dealing with them later.
     void pushToOutputStream(RTObject obj) {
+        // When silent, the stream only ever holds string evaluation sections
+        // (e.g. choice text), so anything pushed outside them is thrown away
+        if (silentOutput && getOutputStream().isEmpty()) {
+            if (!(obj instanceof ControlCommand)
+                    || ((ControlCommand) obj).getCommandType() != ControlCommand.CommandType.BeginString) return;
+        }
+
         StringValue text = obj instanceof StringValue ? (StringValue) obj : null;
 
         if (text != null) {
@@ -917,10 +1209,20 @@ public class StoryState {
      * @return The save state in json format.
      */
     public String toJson() throws Exception {
-        SimpleJson.Writer writer = new SimpleJson.Writer();
-        writeJson(writer);
+        StoryTracer tracer = story.getTracer();
+        Object span = tracer != null ? beginSave(tracer) : null;
+        String json = null;
 
-        return writer.toString();
+        try {
+            SimpleJson.Writer writer = new SimpleJson.Writer();
+            writeJson(writer);
+
+            json = writer.toString();
+        } finally {
+            if (tracer != null) tracer.end(span, StoryTracer.Operation.Save, json != null ? json.length() : -1);
+        }
+
+        return json;
     }
 
     /**
@@ -930,8 +1232,52 @@ public class StoryState {
      * @throws Exception
      */
     public void toJson(OutputStream stream) throws Exception {
-        SimpleJson.Writer writer = new SimpleJson.Writer(stream);
-        writeJson(writer);
+        StoryTracer tracer = story.getTracer();
+        Object span = tracer != null ? beginSave(tracer) : null;
+
+        try {
+            SimpleJson.Writer writer = new SimpleJson.Writer(stream);
+            writeJson(writer);
+        } finally {
+            if (tracer != null) tracer.end(span, StoryTracer.Operation.Save, -1);
+        }
+    }
+
+    private Object beginSave(StoryTracer tracer) {
+        return tracer.begin(StoryTracer.Operation.Save, null, getCurrentPathString(), getCurrentFlowName());
+    }
+
+    /**
+     * Exports the current state in a compressed form of the json format. The json
+     * is deflated using a dictionary built from the story's own paths and
+     * variable names, so the result can only be loaded with loadCompressedJson by
+     * the same version of the story.
+     */
+    public byte[] toCompressedJson() throws Exception {
+        return CompressedSave.write(this);
+    }
+
+    /**
+     * Exports the current state in compressed form to a stream. See
+     * toCompressedJson(). The stream isn't closed.
+     */
+    public void toCompressedJson(OutputStream stream) throws Exception {
+        CompressedSave.write(this, stream);
+    }
+
+    /**
+     * Loads a state previously saved with toCompressedJson.
+     */
+    public void loadCompressedJson(byte[] data) throws Exception {
+        loadCompressedJson(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Loads a state previously saved with toCompressedJson, reading it from a
+     * stream. The stream isn't closed.
+     */
+    public void loadCompressedJson(InputStream stream) throws Exception {
+        CompressedSave.load(this, stream);
     }
 
     void trimNewlinesFromOutputStream() {
@@ -1067,6 +1413,8 @@ public class StoryState {
     public int visitCountAtPathString(String pathString) throws Exception {
         Integer visitCountOut;
 
+        if (variablesState.getAccessLog() != null) variablesState.getAccessLog().readVisitCount(pathString);
+
         if (patch != null) {
             Container container = story.contentAtPath(new Path(pathString)).getContainer();
             if (container == null) throw new Exception("Content at path not found: " + pathString);
@@ -1081,6 +1429,52 @@ public class StoryState {
         return 0;
     }
 
+    // Visit count or turn index by container path, ignoring any patch
+    Integer getCount(String pathString, boolean isVisit) {
+        return (isVisit ? visitCounts : turnIndices).get(pathString);
+    }
+
+    // Sets a visit count or turn index by container path, or removes it if null,
+    // keeping the fingerprint up to date. Not while patching.
+    void setCount(String pathString, Integer value, boolean isVisit) {
+        HashMap<String, Integer> counts = isVisit ? visitCounts : turnIndices;
+        Integer oldValue = value != null ? counts.put(pathString, value) : counts.remove(pathString);
+        long hashChange = Fingerprint.entry(pathString, value) - Fingerprint.entry(pathString, oldValue);
+
+        if (isVisit) {
+            visitCountsHash += hashChange;
+            visitCountsModCount++;
+        } else {
+            turnIndicesHash += hashChange;
+        }
+    }
+
+    long getVisitCountsModCount() {
+        return visitCountsModCount;
+    }
+
+    void setVisitCountsModCount(long modCount) {
+        visitCountsModCount = modCount;
+    }
+
+    // Identifies the visit counts map, which is shared with the copies made for
+    // snapshots but replaced when another state is loaded
+    Object getVisitCountsSource() {
+        return visitCounts;
+    }
+
+    // Copy of the visit counts by container path, including any patch
+    HashMap<String, Integer> copyVisitCounts() {
+        HashMap<String, Integer> copy = new HashMap<>(visitCounts);
+
+        if (patch != null) {
+            for (Entry<Container, Integer> e : patch.getVisitCounts().entrySet())
+                copy.put(e.getKey().getPath().toString(), e.getValue());
+        }
+
+        return copy;
+    }
+
     int visitCountForContainer(Container container) throws Exception {
         if (!container.getVisitsShouldBeCounted()) {
             story.error("Read count for target (" + container.getName() + " - on " + container.getDebugMetadata()
@@ -1088,6 +1482,9 @@ public class StoryState {
             return 0;
         }
 
+        if (variablesState.getAccessLog() != null)
+            variablesState.getAccessLog().readVisitCount(container.getPath().toString());
+
         if (patch != null && patch.getVisitCount(container) != null) return patch.getVisitCount(container);
 
         String containerPathStr = container.getPath().toString();
@@ -1098,31 +1495,58 @@ public class StoryState {
     }
 
     void incrementVisitCountForContainer(Container container) throws Exception {
+        String containerPathStr = container.getPath().toString();
+
         if (patch != null) {
-            int currCount = visitCountForContainer(container);
-            currCount++;
+            Integer oldCount = patch.getVisitCount(container);
+            if (oldCount == null) oldCount = visitCounts.get(containerPathStr);
+
+            int currCount = oldCount != null ? oldCount + 1 : 1;
+
+            if (variablesState.getAccessLog() != null)
+                variablesState.getAccessLog().writeVisitCount(containerPathStr, oldCount);
+
             patch.setVisitCount(container, currCount);
+            visitCountsModCount++;
+            visitCountsHash += Fingerprint.entry(container.getPathKeyHash(), currCount)
+                    - Fingerprint.entry(container.getPathKeyHash(), oldCount);
 
             return;
         }
 
         Integer count = 0;
-        String containerPathStr = container.getPath().toString();
 
         if (visitCounts.containsKey(containerPathStr)) count = visitCounts.get(containerPathStr);
 
         count++;
-        visitCounts.put(containerPathStr, count);
+        Integer oldCount = visitCounts.put(containerPathStr, count);
+        visitCountsModCount++;
+
+        if (variablesState.getAccessLog() != null)
+            variablesState.getAccessLog().writeVisitCount(containerPathStr, oldCount);
+
+        visitCountsHash += Fingerprint.entry(container.getPathKeyHash(), count)
+                - Fingerprint.entry(container.getPathKeyHash(), oldCount);
     }
 
     void recordTurnIndexVisitToContainer(Container container) {
+        String containerPathStr = container.getPath().toString();
+        Integer oldIndex;
+
         if (patch != null) {
+            oldIndex = patch.getTurnIndex(container);
+            if (oldIndex == null) oldIndex = turnIndices.get(containerPathStr);
+
             patch.setTurnIndex(container, currentTurnIndex);
-            return;
+        } else {
+            oldIndex = turnIndices.put(containerPathStr, currentTurnIndex);
         }
 
-        String containerPathStr = container.getPath().toString();
-        turnIndices.put(containerPathStr, currentTurnIndex);
+        if (variablesState.getAccessLog() != null)
+            variablesState.getAccessLog().writeTurnIndex(containerPathStr, oldIndex);
+
+        turnIndicesHash += Fingerprint.entry(container.getPathKeyHash(), currentTurnIndex)
+                - Fingerprint.entry(container.getPathKeyHash(), oldIndex);
     }
 
     int turnsSinceForContainer(Container container) throws Exception {
@@ -1133,6 +1557,9 @@ public class StoryState {
 
         int index = 0;
 
+        if (variablesState.getAccessLog() != null)
+            variablesState.getAccessLog().readTurnIndex(container.getPath().toString());
+
         if (patch != null && patch.getTurnIndex(container) != null) {
             index = patch.getTurnIndex(container);
             return currentTurnIndex - index;
@@ -1184,6 +1611,14 @@ public class StoryState {
         for (Entry<Container, Integer> pathToIndex : patch.getTurnIndices().entrySet())
             applyCountChanges(pathToIndex.getKey(), pathToIndex.getValue(), false);
 
+        for (Flow flow : patch.getRemovedFlows()) {
+            try {
+                flow.discard();
+            } catch (Exception e) {
+                addError("Couldn't discard a removed flow from the flow store: " + e.getMessage(), true);
+            }
+        }
+
         patch = null;
     }
 
@@ -1191,9 +1626,14 @@ public class StoryState {
         HashMap<String, Integer> counts = isVisit ? visitCounts : turnIndices;
 
         counts.put(container.getPath().toString(), newCount);
+        if (isVisit) visitCountsModCount++;
     }
 
     void writeJson(SimpleJson.Writer writer) throws Exception {
+        writeJson(writer, false);
+    }
+
+    private void writeJson(SimpleJson.Writer writer, boolean currentFlowOnly) throws Exception {
         writer.writeObjectStart();
 
         // Flows
@@ -1201,7 +1641,7 @@ public class StoryState {
         writer.writeObjectStart();
 
         // Multi-flow
-        if (namedFlows != null) {
+        if (namedFlows != null && !currentFlowOnly) {
             for (Entry<String, Flow> namedFlow : namedFlows.entrySet()) {
                 final Flow flow = namedFlow.getValue();
 
@@ -1291,39 +1731,40 @@ public class StoryState {
         if (flowsObj != null) {
             HashMap<String, Object> flowsObjDict = (HashMap<String, Object>) flowsObj;
 
+            discardSpilledFlows();
+
             // Single default flow
             if (flowsObjDict.size() == 1) namedFlows = null;
 
             // Multi-flow, need to create flows dict
-            else if (namedFlows == null) namedFlows = new HashMap<>();
+            else if (namedFlows == null) namedFlows = newFlowsMap();
 
             // Multi-flow, already have a flows dict
             else namedFlows.clear();
 
-            // Load up each flow (there may only be one)
+            String currFlowName = (String) jObject.get("currentFlowName");
+
+            // Load up each flow (there may only be one). Only the current flow is
+            // built now, the others are left unloaded until switched to.
             for (Entry<String, Object> namedFlowObj : flowsObjDict.entrySet()) {
                 String name = namedFlowObj.getKey();
                 HashMap<String, Object> flowObj = (HashMap<String, Object>) namedFlowObj.getValue();
 
-                // Load up this flow using JSON data
-                Flow flow = new Flow(name, story, flowObj);
-
                 if (flowsObjDict.size() == 1) {
                     currentFlow = new Flow(name, story, flowObj);
+                } else if (name.equals(currFlowName)) {
+                    currentFlow = new Flow(name, story, flowObj);
+                    namedFlows.put(name, currentFlow);
                 } else {
-                    namedFlows.put(name, flow);
+                    namedFlows.put(name, new Flow(name, flowObj));
                 }
             }
-
-            if (namedFlows != null && namedFlows.size() > 1) {
-                String currFlowName = (String) jObject.get("currentFlowName");
-                currentFlow = namedFlows.get(currFlowName);
-            }
         }
 
         // Old format: individually load up callstack, output stream, choices in
         // current/default flow
         else {
+            discardSpilledFlows();
             namedFlows = null;
             currentFlow.name = kDefaultFlowName;
             currentFlow.callStack.setJsonToken((HashMap<String, Object>) jObject.get("callstackThreads"), story);
@@ -1338,10 +1779,17 @@ public class StoryState {
         outputStreamDirty();
         aliveFlowNamesDirty = true;
 
+        loadSharedJsonObj(jObject);
+    }
+
+    // The part of loadJsonObj for everything but the flows
+    @SuppressWarnings("unchecked")
+    private void loadSharedJsonObj(HashMap<String, Object> jObject) throws Exception {
         variablesState.setJsonToken((HashMap<String, Object>) jObject.get("variablesState"));
         variablesState.setCallStack(currentFlow.callStack);
 
-        evaluationStack = Json.jArrayToRuntimeObjList((List<Object>) jObject.get("evalStack"));
+        evaluationStack.clear();
+        evaluationStack.addAll(Json.jArrayToRuntimeObjList((List<Object>) jObject.get("evalStack")));
 
         Object currentDivertTargetPath = jObject.get("currentDivertTarget");
         if (currentDivertTargetPath != null) {
@@ -1349,8 +1797,19 @@ public class StoryState {
             divertedPointer.assign(story.pointerAtPath(divertPath));
         }
 
-        visitCounts = Json.jObjectToIntHashMap((HashMap<String, Object>) jObject.get("visitCounts"));
-        turnIndices = Json.jObjectToIntHashMap((HashMap<String, Object>) jObject.get("turnIndices"));
+        // Refill the existing maps rather than replacing them, unless they're still
+        // shared with a state being saved in the background
+        if (patch == null) {
+            Json.jObjectToIntHashMap((HashMap<String, Object>) jObject.get("visitCounts"), visitCounts);
+            Json.jObjectToIntHashMap((HashMap<String, Object>) jObject.get("turnIndices"), turnIndices);
+        } else {
+            visitCounts = Json.jObjectToIntHashMap((HashMap<String, Object>) jObject.get("visitCounts"));
+            turnIndices = Json.jObjectToIntHashMap((HashMap<String, Object>) jObject.get("turnIndices"));
+        }
+
+        visitCountsHash = Fingerprint.intMap(visitCounts);
+        turnIndicesHash = Fingerprint.intMap(turnIndices);
+        visitCountsModCount++;
 
         currentTurnIndex = (int) jObject.get("turnIdx");
         storySeed = (int) jObject.get("storySeed");
@@ -1363,4 +1822,149 @@ public class StoryState {
             previousRandom = 0;
         }
     }
+
+    // Streamed counterpart of loadJsonObj. The properties of a save can come in any
+    // order (inkSaveVersion is written last), so everything is read into locals
+    // first and only applied to this state once the version has been checked.
+    void loadJsonStream(SimpleJson.StreamReader reader) throws Exception {
+        Integer jSaveVersion = null;
+        HashMap<String, Flow> loadedFlows = null;
+        String currFlowName = null;
+
+        // Old format: callstack, output stream and choices at the top level
+        CallStack oldCallStack = null;
+        List<RTObject> oldOutputStream = null;
+        List<Choice> oldCurrentChoices = null;
+        HashMap<String, CallStack.Thread> oldChoiceThreads = null;
+
+        HashMap<String, RTObject> loadedGlobals = null;
+        List<RTObject> loadedEvalStack = null;
+        String currentDivertTargetPath = null;
+        HashMap<String, Integer> loadedVisitCounts = null;
+        HashMap<String, Integer> loadedTurnIndices = null;
+        Integer loadedTurnIdx = null;
+        Integer loadedStorySeed = null;
+        int loadedPreviousRandom = 0;
+
+        reader.readObjectStart();
+        while (reader.nextProperty()) {
+            String key = reader.readPropertyName();
+
+            if (key.equals("flows")) {
+                loadedFlows = newFlowsMap();
+
+                // The current flow name may only come later, so apart from the first
+                // one (usually the only one) flows are kept as JSON text for now, and
+                // the current one is built below
+                reader.readObjectStart();
+                while (reader.nextProperty()) {
+                    String name = reader.readPropertyName();
+
+                    if (loadedFlows.isEmpty()) loadedFlows.put(name, new Flow(name, story, reader));
+                    else loadedFlows.put(name, new Flow(name, reader.readRawValue()));
+                }
+            } else if (key.equals("currentFlowName")) {
+                currFlowName = reader.readString();
+            } else if (key.equals("callstackThreads")) {
+                oldCallStack = new CallStack(story);
+                oldCallStack.setJsonToken(reader, story);
+            } else if (key.equals("outputStream")) {
+                oldOutputStream = Json.readRuntimeObjList(reader);
+            } else if (key.equals("currentChoices")) {
+                oldCurrentChoices = Json.readRuntimeObjList(reader);
+            } else if (key.equals("choiceThreads")) {
+                oldChoiceThreads = Flow.readChoiceThreads(reader, story);
+            } else if (key.equals("variablesState")) {
+                loadedGlobals = Json.readHashMapRuntimeObjs(reader);
+            } else if (key.equals("evalStack")) {
+                loadedEvalStack = Json.readRuntimeObjList(reader);
+            } else if (key.equals("currentDivertTarget")) {
+                currentDivertTargetPath = reader.readString();
+            } else if (key.equals("visitCounts")) {
+                loadedVisitCounts = Json.readIntHashMap(reader);
+            } else if (key.equals("turnIndices")) {
+                loadedTurnIndices = Json.readIntHashMap(reader);
+            } else if (key.equals("turnIdx")) {
+                loadedTurnIdx = reader.readInt();
+            } else if (key.equals("storySeed")) {
+                loadedStorySeed = reader.readInt();
+            } else if (key.equals("previousRandom")) {
+                loadedPreviousRandom = reader.readInt();
+            } else if (key.equals("inkSaveVersion")) {
+                jSaveVersion = reader.readInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+
+        if (jSaveVersion == null || loadedTurnIdx == null || loadedStorySeed == null) {
+            throw new Exception("ink save format incorrect, can't load.");
+        } else if (jSaveVersion < kMinCompatibleLoadVersion) {
+            throw new Exception("Ink save format isn't compatible with the current version (saw '" + jSaveVersion
+                    + "', but minimum is " + kMinCompatibleLoadVersion + "), so can't load.");
+        }
+
+        if (loadedFlows != null) {
+            Flow loadedCurrentFlow = loadedFlows.size() == 1
+                    ? loadedFlows.values().iterator().next()
+                    : loadedFlows.get(currFlowName);
+
+            if (loadedCurrentFlow == null)
+                throw new Exception("ink save format incorrect, current flow not found, can't load.");
+
+            loadedCurrentFlow = loadedCurrentFlow.load(story);
+
+            discardSpilledFlows();
+
+            // Single default flow
+            if (loadedFlows.size() == 1) {
+                namedFlows = null;
+                currentFlow = loadedCurrentFlow;
+            }
+
+            // Multi-flow
+            else {
+                namedFlows = loadedFlows;
+                namedFlows.put(loadedCurrentFlow.name, loadedCurrentFlow);
+                currentFlow = loadedCurrentFlow;
+            }
+        }
+
+        // Old format: individually load up callstack, output stream, choices in
+        // current/default flow
+        else {
+            discardSpilledFlows();
+            namedFlows = null;
+            currentFlow = new Flow(kDefaultFlowName, story);
+
+            if (oldCallStack != null) currentFlow.callStack = oldCallStack;
+            if (oldOutputStream != null) currentFlow.outputStream = oldOutputStream;
+            if (oldCurrentChoices != null) currentFlow.currentChoices = oldCurrentChoices;
+
+            currentFlow.loadFlowChoiceThreads(oldChoiceThreads);
+        }
+
+        outputStreamDirty();
+        aliveFlowNamesDirty = true;
+
+        variablesState.setGlobals(loadedGlobals != null ? loadedGlobals : new HashMap<String, RTObject>());
+        variablesState.setCallStack(currentFlow.callStack);
+
+        evaluationStack = loadedEvalStack != null ? loadedEvalStack : new ArrayList<RTObject>();
+
+        if (currentDivertTargetPath != null) {
+            Path divertPath = new Path(currentDivertTargetPath);
+            divertedPointer.assign(story.pointerAtPath(divertPath));
+        }
+
+        visitCounts = loadedVisitCounts != null ? loadedVisitCounts : new HashMap<String, Integer>();
+        turnIndices = loadedTurnIndices != null ? loadedTurnIndices : new HashMap<String, Integer>();
+        visitCountsHash = Fingerprint.intMap(visitCounts);
+        turnIndicesHash = Fingerprint.intMap(turnIndices);
+        visitCountsModCount++;
+
+        currentTurnIndex = loadedTurnIdx;
+        storySeed = loadedStorySeed;
+        previousRandom = loadedPreviousRandom;
+    }
 }
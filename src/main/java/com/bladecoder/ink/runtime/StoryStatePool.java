@@ -0,0 +1,106 @@
+package com.bladecoder.ink.runtime;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of reusable StoryState instances for a single Story, for servers that
+ * create and discard many sessions. Instead of constructing a new state (and
+ * re-running the global declarations as resetState() does), released states
+ * are reset or loaded in place, clearing and refilling their existing flow,
+ * callstack, maps and globals.
+ *
+ * Typical use is to acquire a state, install it with Story.setState(), play,
+ * save it and release it. A released state mustn't be used again, including
+ * through the Story it was last set on. Like Story, the pool isn't thread safe.
+ */
+public class StoryStatePool {
+    private final Story story;
+    private final int maxIdle;
+    private final ArrayDeque<StoryState> idle;
+
+    /**
+     * @param story The story the pooled states belong to.
+     * @param maxIdle Maximum number of released states kept for reuse.
+     */
+    public StoryStatePool(Story story, int maxIdle) {
+        this.story = story;
+        this.maxIdle = maxIdle;
+        this.idle = new ArrayDeque<>(maxIdle);
+    }
+
+    /**
+     * Returns a state at the start of the story, as after Story.resetState().
+     */
+    public StoryState acquire() throws Exception {
+        StoryState state = idle.poll();
+
+        if (state == null) state = newState();
+        else state.reset();
+
+        return state;
+    }
+
+    /**
+     * Returns a state loaded from a JSON save.
+     */
+    public StoryState acquire(String json) throws Exception {
+        StoryState state = idle.poll();
+
+        if (state == null) state = newState();
+        else state.resetTransientState();
+
+        try {
+            state.loadJson(json);
+        } catch (Exception e) {
+            release(state);
+            throw e;
+        }
+
+        return state;
+    }
+
+    /**
+     * Returns a state loaded from a JSON save read from a stream. See
+     * StoryState.loadJson(InputStream).
+     */
+    public StoryState acquire(InputStream stream) throws Exception {
+        StoryState state = idle.poll();
+
+        if (state == null) state = newState();
+        else state.resetTransientState();
+
+        try {
+            state.loadJson(stream);
+        } catch (Exception e) {
+            release(state);
+            throw e;
+        }
+
+        return state;
+    }
+
+    /**
+     * Gives a state back to the pool so it can be reused.
+     */
+    public void release(StoryState state) throws Exception {
+        if (state.getStory() != story) throw new Exception("The state was created for a different story");
+
+        if (idle.size() < maxIdle && !idle.contains(state)) idle.push(state);
+    }
+
+    /**
+     * Number of released states waiting to be reused.
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    private StoryState newState() throws Exception {
+        StoryState state = new StoryState(story);
+        state.getVariablesState().shareDefaultGlobals(story.getState().getVariablesState());
+        state.getVariablesState().setVariableChangedEvent(story);
+        state.reset();
+        return state;
+    }
+}
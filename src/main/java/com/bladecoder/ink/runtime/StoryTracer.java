@@ -0,0 +1,47 @@
+package com.bladecoder.ink.runtime;
+
+/**
+ * Told when a story starts and ends what it does, for tracing tools like Java
+ * Flight Recorder (see the blade-ink-jfr jar). Set with Story.setTracer().
+ *
+ * Saving and loading can happen on other threads (for instance a background
+ * save), so a tracer used by them must be thread safe.
+ */
+public interface StoryTracer {
+    enum Operation {
+        Continue,
+        Choice,
+        ExternalFunction,
+        Snapshot,
+        Restore,
+        Save,
+        Load
+    }
+
+    /**
+     * Called when the story starts an operation.
+     *
+     * @param name     The external function called, or the text of the choice
+     *                 taken. Null for the other operations.
+     * @param path     Path of the story when the operation starts, or the
+     *                 target of the choice. Null if there isn't one, and for
+     *                 loads.
+     * @param flowName The current flow. Null for loads.
+     * @return Passed to end(), so it can be the event being timed.
+     */
+    Object begin(Operation operation, String name, String path, String flowName);
+
+    /**
+     * Called when the operation is done, even if it failed.
+     *
+     * @param span What begin() returned.
+     * @param size Characters saved or loaded, or -1 if not known or not a save
+     *             or load.
+     */
+    void end(Object span, Operation operation, long size);
+
+    /**
+     * Called when the story gets an error or warning.
+     */
+    void error(String message, boolean isWarning, String path, String flowName);
+}
@@ -26,12 +26,22 @@ public class VariablesState implements Iterable<String> {
     private HashMap<String, RTObject> globalVariables;
     private HashMap<String, RTObject> defaultGlobalVariables;
 
+    // Sum of the fingerprint hashes of globalVariables entries
+    private long globalsHash;
+
+    // Bumped on every change to the globals, patched or not, so StorySnapshot
+    // can tell exactly when they haven't changed
+    private long modCount;
+
     private VariableChanged variableChangedEvent;
 
     private ListDefinitionsOrigin listDefsOrigin;
 
     private StatePatch patch;
 
+    // Shared with the copies of the state made for snapshots
+    private StateAccessLog accessLog;
+
     VariablesState(CallStack callStack, ListDefinitionsOrigin listDefsOrigin) {
         globalVariables = new HashMap<>();
         this.callStack = callStack;
@@ -93,6 +103,8 @@ public class VariablesState implements Iterable<String> {
             globalVariables.put(namedVar.getKey(), namedVar.getValue());
         }
 
+        globalsHash = getPatch().getGlobalsHash();
+
         if (changedVariablesForBatchObs != null) {
             for (String name : getPatch().getChangedVariables()) changedVariablesForBatchObs.add(name);
         }
@@ -112,6 +124,47 @@ public class VariablesState implements Iterable<String> {
                 globalVariables.put(varVal.getKey(), varVal.getValue());
             }
         }
+
+        globalsHash = Fingerprint.objMap(globalVariables);
+        modCount++;
+    }
+
+    // Puts every global back to its default value without re-running the ink
+    // global declarations. Used when a pooled StoryState is reset.
+    void resetGlobals() {
+        globalVariables.clear();
+        globalVariables.putAll(defaultGlobalVariables);
+        globalsHash = Fingerprint.objMap(globalVariables);
+        modCount++;
+
+        patch = null;
+        batchObservingVariableChanges = false;
+        changedVariablesForBatchObs = null;
+    }
+
+    // Default values never change after snapshotDefaultGlobals(), so states created
+    // for the same story can share them.
+    void shareDefaultGlobals(VariablesState other) {
+        defaultGlobalVariables = other.defaultGlobalVariables;
+    }
+
+    // Same as setJsonToken, but with the saved globals already turned into runtime
+    // objects (as the streamed save loader does).
+    void setGlobals(HashMap<String, RTObject> loadedGlobals) {
+        globalVariables.clear();
+
+        for (Entry<String, RTObject> varVal : defaultGlobalVariables.entrySet()) {
+            RTObject loadedValue = loadedGlobals.get(varVal.getKey());
+
+            if (loadedValue != null) {
+                globalVariables.put(varVal.getKey(), loadedValue);
+            } else {
+                globalVariables.put(varVal.getKey(), varVal.getValue());
+            }
+        }
+
+        globalsHash = Fingerprint.objMap(globalVariables);
+        modCount++;
     }
 
     /// <summary>
@@ -287,6 +340,8 @@ public class VariablesState implements Iterable<String> {
     }
 
     RTObject getVariableWithName(String name, int contextIndex) throws Exception {
+        if (accessLog != null && contextIndex <= 0 && globalVariableExistsWithName(name)) accessLog.readGlobal(name);
+
         RTObject varValue = getRawVariableWithName(name, contextIndex);
         // Get value from pointer?
         VariablePointerValue varPointer = varValue instanceof VariablePointerValue
@@ -372,10 +427,21 @@ public class VariablesState implements Iterable<String> {
 
         if (oldValue == null) oldValue = globalVariables.get(variableName);
 
+        if (accessLog != null) accessLog.writeGlobal(variableName, oldValue);
+
         ListValue.retainListOriginsForAssignment(oldValue, value);
 
-        if (patch != null) patch.setGlobal(variableName, value);
-        else globalVariables.put(variableName, value);
+        long hashChange = Fingerprint.entry(variableName, value) - Fingerprint.entry(variableName, oldValue);
+
+        modCount++;
+
+        if (patch != null) {
+            patch.setGlobal(variableName, value);
+            patch.setGlobalsHash(patch.getGlobalsHash() + hashChange);
+        } else {
+            globalVariables.put(variableName, value);
+            globalsHash += hashChange;
+        }
 
         if (getVariableChangedEvent() != null && !value.equals(oldValue)) {
 
@@ -390,6 +456,8 @@ public class VariablesState implements Iterable<String> {
 
     public void setjsonToken(HashMap<String, Object> value) throws Exception {
         globalVariables = Json.jObjectToHashMapRuntimeObjs(value);
+        globalsHash = Fingerprint.objMap(globalVariables);
+        modCount++;
     }
 
     public RTObject valueAtVariablePointer(VariablePointerValue pointer) throws Exception {
@@ -409,11 +477,29 @@ public class VariablesState implements Iterable<String> {
                 || (defaultGlobalVariables != null && defaultGlobalVariables.containsKey(name));
     }
 
+    long getGlobalsHash() {
+        return patch != null ? patch.getGlobalsHash() : globalsHash;
+    }
+
+    StateAccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    void setAccessLog(StateAccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+
     StatePatch getPatch() {
         return patch;
     }
 
     void setPatch(StatePatch patch) {
+        // Applying or dropping a patch changes what the globals read as
+        modCount++;
         this.patch = patch;
     }
+
+    long getModCount() {
+        return modCount;
+    }
 }
@@ -0,0 +1,61 @@
+package com.bladecoder.ink.runtime;
+
+import com.bladecoder.ink.runtime.test.TestUtils;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * In the runtime package, to clear the native function table between rounds.
+ */
+public class NativeFunctionSpecTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 100;
+
+    /**
+     * Test the first stories, created on several threads at once, all see the
+     * whole native function table.
+     */
+    @Test
+    public void concurrentInitialisation() throws Exception {
+        final String json = TestUtils.getJsonString("inkfiles/runtime/simulation.ink.json");
+        final String expected = new Story(json).continueMaximally();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                NativeFunctionCall.resetNativeFunctions();
+
+                final CountDownLatch ready = new CountDownLatch(THREADS);
+                final CountDownLatch start = new CountDownLatch(1);
+                List<Future<String>> results = new ArrayList<>();
+
+                for (int i = 0; i < THREADS; i++) {
+                    results.add(executor.submit(new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            ready.countDown();
+                            start.await();
+
+                            return new Story(json).continueMaximally();
+                        }
+                    }));
+                }
+
+                ready.await();
+                start.countDown();
+
+                for (Future<String> result : results) Assert.assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
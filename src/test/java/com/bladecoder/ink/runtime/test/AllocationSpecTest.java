@@ -0,0 +1,132 @@
+package com.bladecoder.ink.runtime.test;
+
+import com.bladecoder.ink.runtime.Story;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Checks the bytes allocated per Continue() and per chooseChoiceIndex() stay
+ * within the budgets in allocation-budget.properties. Every story is played in
+ * a loop, always taking the first choice, so it must loop back to a choice.
+ *
+ * When a change lowers the allocations, lower the budget with it, leaving some
+ * room for differences between JVMs.
+ *
+ * The budgets depend on the JVM's allocator, so the tests only run with the
+ * ink.allocationTests system property set, as 'gradlew allocationTest' does.
+ */
+public class AllocationSpecTest {
+    private static final int WARMUP_TURNS = 2000;
+    private static final int TURNS = 2000;
+
+    private com.sun.management.ThreadMXBean threadBean;
+    private long threadId;
+
+    // What reading the allocated bytes allocates itself
+    private long readCost;
+
+    private long continueBytes;
+    private int continues;
+    private long chooseBytes;
+    private int chooses;
+
+    @Test
+    public void simulation() throws Exception {
+        checkBudget("runtime/simulation");
+    }
+
+    @Test
+    public void stickyChoice() throws Exception {
+        checkBudget("choices/sticky-choice");
+    }
+
+    @Test
+    public void cycle() throws Exception {
+        checkBudget("variabletext/cycle");
+    }
+
+    @Test
+    public void listInChoice() throws Exception {
+        checkBudget("variabletext/list-in-choice");
+    }
+
+    private void checkBudget(String name) throws Exception {
+        Assume.assumeTrue(
+                "Allocation budgets are only checked with -Dink.allocationTests=true",
+                Boolean.getBoolean("ink.allocationTests"));
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        Assume.assumeTrue(
+                "Thread allocation counting isn't supported by this JVM",
+                bean instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        threadId = Thread.currentThread().getId();
+
+        readCost = Long.MAX_VALUE;
+        for (int i = 0; i < 100; i++) {
+            long before = allocatedBytes();
+            readCost = Math.min(readCost, allocatedBytes() - before);
+        }
+
+        Story story = new Story(TestUtils.getJsonString("inkfiles/" + name + ".ink.json"));
+
+        play(story, WARMUP_TURNS);
+
+        continueBytes = 0;
+        continues = 0;
+        chooseBytes = 0;
+        chooses = 0;
+
+        play(story, TURNS);
+
+        Properties budgets = new Properties();
+        try (InputStream in = ClassLoader.getSystemResourceAsStream("allocation-budget.properties")) {
+            budgets.load(in);
+        }
+
+        long continueAverage = continueBytes / continues;
+        long chooseAverage = chooseBytes / chooses;
+
+        assertWithinBudget(name + ".continue", continueAverage, budgets);
+        assertWithinBudget(name + ".choose", chooseAverage, budgets);
+    }
+
+    private void play(Story story, int turns) throws Exception {
+        for (int i = 0; i < turns; i++) {
+            while (story.canContinue()) {
+                long before = allocatedBytes();
+                story.Continue();
+                continueBytes += allocatedBytes() - before - readCost;
+                continues++;
+            }
+
+            Assert.assertFalse(story.getCurrentChoices().isEmpty());
+
+            long before = allocatedBytes();
+            story.chooseChoiceIndex(0);
+            chooseBytes += allocatedBytes() - before - readCost;
+            chooses++;
+        }
+    }
+
+    private long allocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(threadId);
+    }
+
+    private static void assertWithinBudget(String key, long bytes, Properties budgets) {
+        String budget = budgets.getProperty(key);
+
+        Assert.assertNotNull("No allocation budget for " + key, budget);
+        Assert.assertTrue(
+                key + " allocates " + bytes + " bytes per call, over the budget of " + budget,
+                bytes <= Long.parseLong(budget.trim()));
+    }
+}
@@ -1,6 +1,17 @@
 package com.bladecoder.ink.runtime.test;
 
+import com.bladecoder.ink.runtime.FileFlowStore;
+import com.bladecoder.ink.runtime.FlowStepper;
+import com.bladecoder.ink.runtime.InMemoryFlowStore;
 import com.bladecoder.ink.runtime.Story;
+import com.bladecoder.ink.runtime.StoryState;
+import com.bladecoder.ink.runtime.StoryStatePool;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -86,4 +97,264 @@ public class MultiFlowSpecTest {
         story.removeFlow("Blue Flow");
         Assert.assertEquals("Default line 2\n", story.Continue());
     }
+
+    @Test
+    public void testMultiFlowSaveLoadStream() throws Exception {
+
+        String json = TestUtils.getJsonString("inkfiles/runtime/multiflow-saveloadthreads.ink.json");
+        Story story = new Story(json);
+
+        Assert.assertEquals("Default line 1\n", story.Continue());
+
+        story.switchFlow("Blue Flow");
+        story.choosePathString("blue");
+        Assert.assertEquals("Hello I'm blue\n", story.Continue());
+
+        story.switchFlow("Red Flow");
+        story.choosePathString("red");
+        Assert.assertEquals("Hello I'm red\n", story.Continue());
+
+        String saved = story.getState().toJson();
+
+        // Streamed load must rebuild exactly the same state as the String load
+        story.resetState();
+        story.getState().loadJson(new ByteArrayInputStream(saved.getBytes("UTF-8")));
+        Assert.assertEquals(saved, story.getState().toJson());
+
+        Assert.assertEquals("Red Flow", story.getCurrentFlowName());
+        story.chooseChoiceIndex(1);
+        Assert.assertEquals("Thread 2 red choice\nAfter thread 2 choice (red)\n", story.continueMaximally());
+
+        story.getState().loadJson(new ByteArrayInputStream(saved.getBytes("UTF-8")));
+        story.switchFlow("Blue Flow");
+        story.chooseChoiceIndex(0);
+        Assert.assertEquals("Thread 1 blue choice\nAfter thread 1 choice (blue)\n", story.continueMaximally());
+
+        story.removeFlow("Blue Flow");
+        Assert.assertEquals("Default line 2\n", story.Continue());
+    }
+
+    @Test
+    public void testMultiFlowSaveUnloadedFlows() throws Exception {
+
+        String json = TestUtils.getJsonString("inkfiles/runtime/multiflow-saveloadthreads.ink.json");
+        Story story = new Story(json);
+
+        Assert.assertEquals("Default line 1\n", story.Continue());
+
+        story.switchFlow("Blue Flow");
+        story.choosePathString("blue");
+        Assert.assertEquals("Hello I'm blue\n", story.Continue());
+
+        story.switchFlow("Red Flow");
+        story.choosePathString("red");
+        Assert.assertEquals("Hello I'm red\n", story.Continue());
+
+        String saved = story.getState().toJson();
+
+        // Flows that haven't been switched to since loading are saved back as they were
+        story.getState().loadJson(new ByteArrayInputStream(saved.getBytes("UTF-8")));
+        Assert.assertEquals(saved, story.getState().toJson());
+
+        // Same when loading from a String, then load the re-saved state
+        story.getState().loadJson(saved);
+        story.getState().loadJson(story.getState().toJson());
+
+        Assert.assertEquals("Red Flow", story.getCurrentFlowName());
+        Assert.assertEquals(2, story.getState().aliveFlowNames().size());
+
+        story.switchFlow("Blue Flow");
+        Assert.assertEquals("Hello I'm blue\n", story.getCurrentText());
+        Assert.assertEquals(
+                "Thread 1 blue choice", story.getCurrentChoices().get(0).getText());
+        story.chooseChoiceIndex(1);
+        Assert.assertEquals("Thread 2 blue choice\nAfter thread 2 choice (blue)\n", story.continueMaximally());
+
+        story.switchFlow("Red Flow");
+        story.chooseChoiceIndex(0);
+        Assert.assertEquals("Thread 1 red choice\nAfter thread 1 choice (red)\n", story.continueMaximally());
+    }
+
+    @Test
+    public void testFlowCache() throws Exception {
+
+        String json = TestUtils.getJsonString("inkfiles/runtime/multiflow-saveloadthreads.ink.json");
+        Story story = new Story(json);
+
+        InMemoryFlowStore store = new InMemoryFlowStore();
+        story.setFlowCache(2, store);
+
+        Assert.assertEquals("Default line 1\n", story.Continue());
+
+        story.switchFlow("Blue Flow");
+        story.choosePathString("blue");
+        Assert.assertEquals("Hello I'm blue\n", story.Continue());
+        Assert.assertEquals(0, store.size());
+
+        // Three flows in use: the default one is the least recently used
+        story.switchFlow("Red Flow");
+        story.choosePathString("red");
+        Assert.assertEquals("Hello I'm red\n", story.Continue());
+        Assert.assertEquals(1, store.size());
+
+        // Saving includes the spilled flow
+        String saved = story.getState().toJson();
+
+        story.switchFlow("Blue Flow");
+        Assert.assertEquals("Hello I'm blue\n", story.getCurrentText());
+        Assert.assertEquals(
+                "Thread 1 blue choice", story.getCurrentChoices().get(0).getText());
+
+        // Back to default: it's loaded from the store and red is spilled instead
+        story.switchToDefaultFlow();
+        Assert.assertEquals(1, store.size());
+        Assert.assertEquals("Default line 2\n", story.Continue());
+
+        story.switchFlow("Red Flow");
+        story.chooseChoiceIndex(1);
+        Assert.assertEquals("Thread 2 red choice\nAfter thread 2 choice (red)\n", story.continueMaximally());
+
+        // Blue is the least recently used now. Removed flows are dropped from the store too
+        Assert.assertEquals(1, store.size());
+        story.removeFlow("Blue Flow");
+        Assert.assertEquals(0, store.size());
+
+        // Flows of a loaded save can be spilled to a file store
+        FileFlowStore fileStore = new FileFlowStore();
+        story.setFlowCache(1, fileStore);
+        story.getState().loadJson(saved);
+
+        story.switchFlow("Blue Flow");
+        story.switchFlow("Red Flow");
+        Assert.assertEquals(1, fileStore.getDirectory().list().length);
+
+        story.switchFlow("Blue Flow");
+        story.chooseChoiceIndex(0);
+        Assert.assertEquals("Thread 1 blue choice\nAfter thread 1 choice (blue)\n", story.continueMaximally());
+
+        story.switchFlow("Red Flow");
+        story.chooseChoiceIndex(0);
+        Assert.assertEquals("Thread 1 red choice\nAfter thread 1 choice (red)\n", story.continueMaximally());
+
+        story.switchFlow("Blue Flow");
+        story.removeFlow("Red Flow");
+        Assert.assertEquals(0, fileStore.getDirectory().list().length);
+        fileStore.getDirectory().delete();
+    }
+
+    @Test
+    public void testFlowCacheReplacedState() throws Exception {
+
+        String json = TestUtils.getJsonString("inkfiles/runtime/multiflow-saveloadthreads.ink.json");
+        Story story = new Story(json);
+
+        InMemoryFlowStore store = new InMemoryFlowStore();
+        story.setFlowCache(1, store);
+
+        story.Continue();
+        story.switchFlow("Blue Flow");
+        Assert.assertEquals(1, store.size());
+
+        // The spilled flows of a dropped state are freed
+        story.resetState();
+        Assert.assertEquals(0, store.size());
+
+        story.Continue();
+        story.switchFlow("Blue Flow");
+        Assert.assertEquals(1, store.size());
+
+        StoryState other = new StoryStatePool(story, 1).acquire();
+        story.setState(other);
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testFlowCacheRemoveWhileSaving() throws Exception {
+
+        String json = TestUtils.getJsonString("inkfiles/runtime/multiflow-saveloadthreads.ink.json");
+        Story story = new Story(json);
+
+        InMemoryFlowStore store = new InMemoryFlowStore();
+        story.setFlowCache(1, store);
+
+        story.Continue();
+        story.switchFlow("Blue Flow");
+        story.switchFlow("Red Flow");
+        Assert.assertEquals(2, store.size());
+
+        // The state being saved still has the removed flow, so it's only
+        // freed when the save completes
+        StoryState saving = story.copyStateForBackgroundThreadSave();
+        story.removeFlow("Blue Flow");
+        Assert.assertEquals(2, store.size());
+        Assert.assertTrue(saving.toJson().contains("Blue Flow"));
+
+        story.backgroundSaveComplete();
+        Assert.assertEquals(1, store.size());
+        Assert.assertFalse(story.getState().toJson().contains("Blue Flow"));
+    }
+
+    @Test
+    public void testFlowStepper() throws Exception {
+
+        String json = TestUtils.getJsonString("inkfiles/runtime/multiflow-npcs.ink.json");
+        Story story = new Story(json);
+        Story sequential = new Story(json);
+
+        List<String> flows = Arrays.asList(
+                "Trader 1", "Walker 1", "Farmer", "Walker 2", "Trader 2", "Walker 3", "Trader 3", "Idle");
+
+        for (String flow : flows) {
+            if (flow.equals("Idle")) continue;
+
+            story.switchFlow(flow);
+            story.choosePathString(flow.split(" ")[0].toLowerCase());
+        }
+
+        story.switchToDefaultFlow();
+        sequential.getState().loadJson(story.getState().toJson());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            FlowStepper stepper = new FlowStepper(story, json, executor);
+            stepper.setParallelism(4);
+
+            for (int tick = 0; tick < 5; tick++) {
+                List<String> expected = new ArrayList<>();
+
+                for (String flow : flows) {
+                    sequential.switchFlow(flow);
+                    expected.add(sequential.canContinue() ? sequential.Continue() : null);
+                }
+
+                sequential.switchToDefaultFlow();
+
+                Assert.assertEquals(expected, stepper.step(flows));
+                Assert.assertEquals(sequential.getState().toJson(), story.getState().toJson());
+            }
+
+            // Flows can't be stepped while saving in the background, and the
+            // state is left as it was
+            StoryState saving = story.copyStateForBackgroundThreadSave();
+            String saved = saving.toJson();
+
+            try {
+                stepper.step(flows);
+                Assert.fail();
+            } catch (Exception e) {
+                // Expected
+            }
+
+            Assert.assertEquals(saved, saving.toJson());
+            story.backgroundSaveComplete();
+            Assert.assertEquals(saved, story.getState().toJson());
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(85, story.getVariablesState().get("gold"));
+        Assert.assertEquals("rainy", story.getVariablesState().get("weather"));
+        Assert.assertTrue(story.currentFlowIsDefaultFlow());
+    }
 }
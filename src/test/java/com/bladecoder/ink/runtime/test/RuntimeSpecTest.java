@@ -1,6 +1,11 @@
 package com.bladecoder.ink.runtime.test;
 
+import com.bladecoder.ink.runtime.Choice;
+import com.bladecoder.ink.runtime.ChoicePrefetcher;
+import com.bladecoder.ink.runtime.CoverageCollector;
+import com.bladecoder.ink.runtime.LatencyHistogram;
 import com.bladecoder.ink.runtime.Profiler;
+import com.bladecoder.ink.runtime.ReplayLog;
 import com.bladecoder.ink.runtime.Story;
 import com.bladecoder.ink.runtime.Story.ExternalFunction;
 import com.bladecoder.ink.runtime.Story.ExternalFunction0;
@@ -9,8 +14,27 @@ import com.bladecoder.ink.runtime.Story.ExternalFunction2;
 import com.bladecoder.ink.runtime.Story.ExternalFunction3;
 import com.bladecoder.ink.runtime.Story.VariableObserver;
 import com.bladecoder.ink.runtime.StoryException;
+import com.bladecoder.ink.runtime.StoryExplorer;
+import com.bladecoder.ink.runtime.StoryLatency;
+import com.bladecoder.ink.runtime.StoryMetrics;
+import com.bladecoder.ink.runtime.StoryRuntime;
+import com.bladecoder.ink.runtime.StorySimulator;
+import com.bladecoder.ink.runtime.StorySnapshot;
+import com.bladecoder.ink.runtime.StoryState;
+import com.bladecoder.ink.runtime.StoryStatePool;
+import com.bladecoder.ink.runtime.StoryTracer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -138,6 +162,90 @@ public class RuntimeSpecTest {
         Assert.assertEquals("The value is -1.", text.get(0));
     }
 
+    /**
+     * Test external function returning a CompletableFuture.
+     */
+    @Test
+    public void externalFunctionAsync() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/runtime/external-function-2-arg.ink.json");
+        Story story = new Story(json);
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        story.bindExternalFunction(
+                "externalFunction", new ExternalFunction2<Integer, Float, CompletableFuture<Integer>>() {
+
+                    @Override
+                    protected CompletableFuture<Integer> call(Integer x, Float y) {
+                        return result;
+                    }
+                });
+
+        // continueAsync stops at the call until the result is ready
+        story.continueAsync(1000);
+        Assert.assertFalse(story.asyncContinueComplete());
+        Assert.assertSame(result, story.getPendingExternalResult());
+
+        story.continueAsync(1000);
+        Assert.assertFalse(story.asyncContinueComplete());
+
+        result.complete(7);
+        story.continueAsync(1000);
+        Assert.assertTrue(story.asyncContinueComplete());
+        Assert.assertNull(story.getPendingExternalResult());
+        Assert.assertEquals("The value is 7.\n", story.getCurrentText());
+
+        // Continue waits for the result
+        Story other = new Story(json);
+        other.bindExternalFunction(
+                "externalFunction", new ExternalFunction2<Integer, Float, CompletableFuture<Integer>>() {
+
+                    @Override
+                    protected CompletableFuture<Integer> call(final Integer x, final Float y) {
+                        return CompletableFuture.supplyAsync(new Supplier<Integer>() {
+                            @Override
+                            public Integer get() {
+                                return (int) (x - y);
+                            }
+                        });
+                    }
+                });
+
+        Assert.assertEquals("The value is -1.\n", other.Continue());
+    }
+
+    /**
+     * Test a step limited continueAsync suspended by an external function
+     * returning a CompletableFuture.
+     */
+    @Test
+    public void externalFunctionAsyncSteps() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/runtime/external-function-2-arg.ink.json");
+        Story story = new Story(json);
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        story.bindExternalFunction(
+                "externalFunction", new ExternalFunction2<Integer, Float, CompletableFuture<Integer>>() {
+
+                    @Override
+                    protected CompletableFuture<Integer> call(Integer x, Float y) {
+                        return result;
+                    }
+                });
+
+        // Stops at the call, well before running out of steps
+        story.continueAsyncSteps(1000);
+        Assert.assertFalse(story.asyncContinueComplete());
+        Assert.assertSame(result, story.getPendingExternalResult());
+
+        Assert.assertFalse(story.resumeAsync());
+        Assert.assertSame(result, story.getPendingExternalResult());
+
+        result.complete(7);
+        Assert.assertTrue(story.resumeAsync());
+        Assert.assertNull(story.getPendingExternalResult());
+        Assert.assertEquals("The value is 7.\n", story.getCurrentText());
+    }
+
     /**
      * Test external function two arguments call. Overrides coerce methods.
      */
@@ -401,6 +509,341 @@ public class RuntimeSpecTest {
         System.out.println("PROFILER REPORT: " + reportStr);
     }
 
+    /**
+     * Test the Profiler sampling mode only keeps the latest samples.
+     */
+    @Test
+    public void profilerSampling() throws Exception {
+        List<String> text = new ArrayList<>();
+
+        String json = TestUtils.getJsonString("inkfiles/runtime/jump-knot.ink.json");
+        Story story = new Story(json);
+
+        Profiler profiler = story.startProfiling(2, 2);
+
+        story.choosePathString("two");
+        TestUtils.nextAll(story, text);
+
+        story.choosePathString("three");
+        TestUtils.nextAll(story, text);
+
+        Assert.assertEquals(2, profiler.getSampleInterval());
+        Assert.assertTrue(profiler.getSamplesTaken() > 2);
+
+        // Header and one line per sample kept
+        Assert.assertEquals(3, profiler.megalog().split("\n").length);
+
+        Assert.assertTrue(profiler.getRootNode().hasChildren());
+        Assert.assertTrue(profiler.report().contains("three"));
+
+        story.endProfiling();
+    }
+
+    /**
+     * Test exporting the Profiler timings as collapsed stacks and JSON.
+     */
+    @Test
+    public void profilerExport() throws Exception {
+        List<String> text = new ArrayList<>();
+
+        String json = TestUtils.getJsonString("inkfiles/runtime/jump-knot.ink.json");
+        Story story = new Story(json);
+
+        Profiler profiler = story.startProfiling();
+
+        story.choosePathString("two");
+        TestUtils.nextAll(story, text);
+
+        story.endProfiling();
+
+        String stacks = profiler.collapsedStacks();
+        Assert.assertTrue(stacks.contains("two "));
+
+        for (String line : stacks.split("\n")) Assert.assertTrue(line, line.matches("[^ ]+ [0-9]+"));
+
+        String profileJson = profiler.toJson();
+        Assert.assertTrue(profileJson.startsWith("{\"continues\":1,"));
+        Assert.assertTrue(profileJson.contains("\"name\":\"two\""));
+        Assert.assertTrue(profileJson.contains("\"selfSamples\":"));
+    }
+
+    /**
+     * Test a StoryTracer is told what the story does.
+     */
+    @Test
+    public void tracer() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/runtime/external-function-0-arg.ink.json");
+        Story story = new Story(json);
+        final List<String> events = new ArrayList<>();
+
+        story.bindExternalFunction("externalFunction", new ExternalFunction0<String>() {
+
+            @Override
+            protected String call() {
+                return "Hello world";
+            }
+        });
+
+        story.setTracer(new StoryTracer() {
+            @Override
+            public Object begin(Operation operation, String name, String path, String flowName) {
+                events.add("begin " + operation + (name != null ? " " + name : ""));
+                return operation;
+            }
+
+            @Override
+            public void end(Object span, Operation operation, long size) {
+                Assert.assertSame(operation, span);
+                events.add("end " + operation + (size >= 0 ? " " + size : ""));
+            }
+
+            @Override
+            public void error(String message, boolean isWarning, String path, String flowName) {
+                events.add("error");
+            }
+        });
+
+        story.Continue();
+
+        Assert.assertEquals("begin Continue", events.get(0));
+        Assert.assertTrue(events.contains("begin ExternalFunction externalFunction"));
+        Assert.assertTrue(events.contains("end ExternalFunction"));
+        Assert.assertEquals("end Continue", events.get(events.size() - 1));
+
+        events.clear();
+        String saved = story.getState().toJson();
+        story.getState().loadJson(saved);
+
+        Assert.assertEquals("begin Save", events.get(0));
+        Assert.assertEquals("end Save " + saved.length(), events.get(1));
+        Assert.assertEquals("begin Load", events.get(2));
+        Assert.assertEquals("end Load " + saved.length(), events.get(3));
+
+        story.setTracer(null);
+        events.clear();
+        story.getState().toJson();
+        Assert.assertTrue(events.isEmpty());
+    }
+
+    /**
+     * Test StoryMetrics counts the rewind caused by a lookahead unsafe function.
+     */
+    @Test
+    public void metrics() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/runtime/external-function-after-newline.ink.json");
+        Story story = new Story(json);
+        final List<int[]> continues = new ArrayList<>();
+
+        story.bindExternalFunction(
+                "externalFunction",
+                new ExternalFunction0<Integer>() {
+
+                    @Override
+                    protected Integer call() {
+                        return 1;
+                    }
+                },
+                false);
+
+        story.setMetrics(new StoryMetrics() {
+            @Override
+            public void continued(Story story, StoryMetrics.ContinueStats stats) {
+                continues.add(new int[] {
+                    stats.getSteps(),
+                    stats.getSnapshots(),
+                    stats.getRestores(),
+                    stats.getUnsafeFunctionRewinds(),
+                    stats.getMaxEvaluationStackDepth()
+                });
+            }
+        });
+
+        Assert.assertEquals("Line one.\n", story.Continue());
+        Assert.assertEquals("Line two.\n", story.Continue());
+
+        Assert.assertEquals(2, continues.size());
+
+        // The line is ended by rewinding to the snapshot taken after it
+        Assert.assertTrue(continues.get(0)[0] > 0);
+        Assert.assertEquals(1, continues.get(0)[1]);
+        Assert.assertEquals(1, continues.get(0)[2]);
+        Assert.assertEquals(1, continues.get(0)[3]);
+
+        // The function result was on the evaluation stack
+        Assert.assertEquals(0, continues.get(1)[3]);
+        Assert.assertEquals(1, continues.get(1)[4]);
+    }
+
+    /**
+     * Test an external function evaluating an ink function counts its steps
+     * into the Continue() that called it, instead of reporting them on their own.
+     */
+    @Test
+    public void metricsNested() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/runtime/external-function-after-newline.ink.json");
+        final Story story = new Story(json);
+        final List<Integer> steps = new ArrayList<>();
+
+        story.bindExternalFunction(
+                "externalFunction",
+                new ExternalFunction0<Object>() {
+
+                    @Override
+                    protected Object call() throws Exception {
+                        return story.evaluateFunction("externalFunction");
+                    }
+                },
+                true);
+
+        story.setMetrics(new StoryMetrics() {
+            @Override
+            public void continued(Story story, StoryMetrics.ContinueStats stats) {
+                steps.add(stats.getSteps());
+            }
+        });
+
+        Assert.assertEquals("Line one.\n", story.Continue());
+        Assert.assertEquals("Line two.\n", story.Continue());
+
+        Assert.assertEquals(2, steps.size());
+
+        // Looking ahead after the first line calls the external function,
+        // so the steps of its ink function are counted into the first Continue()
+        Assert.assertEquals(11, (int) steps.get(0));
+        Assert.assertEquals(5, (int) steps.get(1));
+    }
+
+    /**
+     * Test StoryLatency records the calls made by the game.
+     */
+    @Test
+    public void latency() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/function/func-basic.ink.json");
+        Story story = new Story(json);
+        StoryLatency latency = new StoryLatency();
+        story.setLatency(latency);
+
+        story.evaluateFunction("lerp", new Object[] {2, 8, 0.4f});
+        Assert.assertEquals("The value of x is 4.4.\n", story.Continue());
+
+        // The Continue() run by evaluateFunction() isn't counted
+        Assert.assertEquals(1, latency.getContinueLatency().getTotalCount());
+        Assert.assertEquals(1, latency.getFunctionLatency().getTotalCount());
+        Assert.assertEquals(0, latency.getChoiceLatency().getTotalCount());
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) histogram.record(i * 1000L);
+
+        Assert.assertEquals(1000, histogram.getTotalCount());
+        Assert.assertEquals(1000000, histogram.getMax());
+        Assert.assertEquals(500000, histogram.getValueAtPercentile(50), 500000 * 0.04);
+        Assert.assertEquals(990000, histogram.getValueAtPercentile(99), 990000 * 0.04);
+        Assert.assertEquals(1000000, histogram.getValueAtPercentile(100));
+    }
+
+    /**
+     * Test a step budget stops continueAsync() at the same place every time.
+     */
+    @Test
+    public void stepBudget() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/function/complex-func3.ink.json");
+        String line = new Story(json).Continue();
+        int[] calls = new int[2];
+
+        for (int i = 0; i < calls.length; i++) {
+            Story story = new Story(json);
+            story.setStepBudget(5);
+
+            do {
+                story.continueAsync(0);
+                calls[i]++;
+            } while (!story.asyncContinueComplete());
+
+            Assert.assertEquals(line, story.getCurrentText());
+        }
+
+        Assert.assertTrue(calls[0] > 1);
+        Assert.assertEquals(calls[0], calls[1]);
+    }
+
+    /**
+     * Test two stories continued a few steps at a time, taking turns.
+     */
+    @Test
+    public void continueAsyncSteps() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/function/complex-func3.ink.json");
+        String line = new Story(json).Continue();
+
+        Story story1 = new Story(json);
+        Story story2 = new Story(json);
+
+        story1.continueAsyncSteps(3);
+        story2.continueAsyncSteps(3);
+
+        Assert.assertFalse(story1.asyncContinueComplete());
+
+        boolean complete1 = false;
+        boolean complete2 = false;
+        int turns = 0;
+
+        while (!complete1 || !complete2) {
+            if (!complete1) complete1 = story1.resumeAsync();
+            if (!complete2) complete2 = story2.resumeAsync();
+            turns++;
+        }
+
+        Assert.assertTrue(turns > 1);
+        Assert.assertEquals(line, story1.getCurrentText());
+        Assert.assertEquals(line, story2.getCurrentText());
+
+        try {
+            story1.resumeAsync();
+            Assert.fail();
+        } catch (Exception e) {
+        }
+    }
+
+    /**
+     * Test a CoverageCollector adds up the counts of two sessions.
+     */
+    @Test
+    public void coverage() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/runtime/jump-knot.ink.json");
+        CoverageCollector coverage = new CoverageCollector();
+
+        Story story = new Story(json);
+        story.startCoverage(coverage);
+        story.choosePathString("two");
+        Assert.assertEquals("Two", story.Continue());
+        story.endCoverage();
+
+        long twoSteps = coverage.getSteps("two");
+        Assert.assertTrue(twoSteps > 0);
+
+        story = new Story(json);
+        story.startCoverage(coverage);
+        story.choosePathString("two");
+        story.continueMaximally();
+        story.choosePathString("three");
+        story.continueMaximally();
+        story.endCoverage();
+
+        Assert.assertEquals(2, coverage.getSessions());
+        Assert.assertEquals(2 * twoSteps, coverage.getSteps("two"));
+        Assert.assertEquals(2, coverage.getCount("two", 0));
+        Assert.assertTrue(coverage.getSteps("three") > 0);
+        Assert.assertTrue(coverage.getUnreachedContainers().contains("one"));
+        Assert.assertFalse(coverage.getUnreachedContainers().contains("two"));
+        Assert.assertTrue(coverage.toJson().contains("\"path\":\"three\""));
+
+        // A different story can't be counted into the same collector
+        try {
+            new Story(TestUtils.getJsonString("inkfiles/runtime/jump-stitch.ink.json")).startCoverage(coverage);
+            Assert.fail();
+        } catch (Exception e) {
+        }
+    }
+
     /**
      * Jump to stitch from code.
      */
@@ -481,4 +924,578 @@ public class RuntimeSpecTest {
         Assert.assertEquals(false, story.canContinue());
         Assert.assertEquals(0, story.getCurrentChoices().size());
     }
+
+    /**
+     * Test loading a save from a stream and from a channel.
+     */
+    @Test
+    public void testLoadSaveStream() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/runtime/load-save.ink.json");
+        Story story = new Story(json);
+
+        List<String> text = new ArrayList<>();
+
+        TestUtils.nextAll(story, text);
+
+        // save the game state to a stream
+        ByteArrayOutputStream saveStream = new ByteArrayOutputStream();
+        story.getState().toJson(saveStream);
+        byte[] save = saveStream.toByteArray();
+
+        Assert.assertEquals(story.getState().toJson(), new String(save, "UTF-8"));
+
+        // recreate game and load state from the stream
+        story = new Story(json);
+        story.getState().loadJson(new ByteArrayInputStream(save));
+
+        Assert.assertEquals(new String(save, "UTF-8"), story.getState().toJson());
+
+        story.chooseChoiceIndex(0);
+
+        TestUtils.nextAll(story, text);
+        Assert.assertEquals("\"There is not a moment to lose!\" I declared.", text.get(1));
+        Assert.assertEquals("We hurried home to Savile Row as fast as we could.", text.get(2));
+        Assert.assertEquals(false, story.canContinue());
+
+        // and from a channel
+        story = new Story(json);
+        story.getState().loadJson(Channels.newChannel(new ByteArrayInputStream(save)));
+        story.chooseChoiceIndex(1);
+
+        Assert.assertEquals("\"Monsieur, let us savour this moment!\" I declared.\n", story.Continue());
+    }
+
+    /**
+     * Test reusing pooled states.
+     */
+    @Test
+    public void testStatePool() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/runtime/load-save.ink.json");
+        Story story = new Story(json);
+        String initialState = withoutSeed(story.getState().toJson());
+
+        StoryStatePool pool = new StoryStatePool(story, 4);
+
+        // Play a session on a pooled state and save it
+        StoryState session = pool.acquire();
+        story.setState(session);
+        Assert.assertEquals(initialState, withoutSeed(story.getState().toJson()));
+
+        List<String> text = new ArrayList<>();
+        TestUtils.nextAll(story, text);
+        String saveString = story.getState().toJson();
+
+        story.chooseChoiceIndex(0);
+        TestUtils.nextAll(story, text);
+        Assert.assertEquals(false, story.canContinue());
+
+        pool.release(session);
+        Assert.assertEquals(1, pool.getIdleCount());
+
+        // A reset state is back at the start
+        StoryState reused = pool.acquire();
+        Assert.assertSame(session, reused);
+        story.setState(reused);
+        Assert.assertEquals(initialState, withoutSeed(story.getState().toJson()));
+        Assert.assertEquals("We arrived into London at 9.45pm exactly.\n", story.Continue());
+        pool.release(reused);
+
+        // A state loaded into a reused one continues from the save
+        reused = pool.acquire(saveString);
+        Assert.assertSame(session, reused);
+        story.setState(reused);
+        Assert.assertEquals(saveString, story.getState().toJson());
+
+        story.chooseChoiceIndex(1);
+        Assert.assertEquals("\"Monsieur, let us savour this moment!\" I declared.\n", story.Continue());
+    }
+
+    /**
+     * Test compressed saves.
+     */
+    @Test
+    public void testLoadSaveCompressed() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/runtime/load-save.ink.json");
+        Story story = new Story(json);
+
+        List<String> text = new ArrayList<>();
+        TestUtils.nextAll(story, text);
+
+        String saveString = story.getState().toJson();
+        byte[] compressed = story.getState().toCompressedJson();
+
+        Assert.assertTrue(compressed.length < saveString.getBytes("UTF-8").length / 2);
+
+        story = new Story(json);
+        story.getState().loadCompressedJson(compressed);
+        Assert.assertEquals(saveString, story.getState().toJson());
+
+        story.chooseChoiceIndex(0);
+        TestUtils.nextAll(story, text);
+        Assert.assertEquals("\"There is not a moment to lose!\" I declared.", text.get(1));
+
+        // The dictionary is tied to the story
+        Story otherStory = new Story(TestUtils.getJsonString("inkfiles/runtime/multiflow-basics.ink.json"));
+        try {
+            otherStory.getState().loadCompressedJson(compressed);
+            Assert.fail("Loading a save compressed for a different story should fail");
+        } catch (Exception e) {
+            Assert.assertTrue(e.getMessage().contains("different version of the story"));
+        }
+    }
+
+    /**
+     * Test running many sessions in parallel gives the same results as running
+     * them one after the other.
+     */
+    @Test
+    public void testStoryRuntime() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/runtime/multiflow-saveloadthreads.ink.json");
+        StoryRuntime runtime = new StoryRuntime(json);
+
+        List<StoryRuntime.Session<String>> sessions = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            final String color = i % 2 == 0 ? "blue" : "red";
+            final int choice = i / 2 % 2;
+
+            sessions.add(new StoryRuntime.Session<String>() {
+                @Override
+                public String run(Story story) throws Exception {
+                    StringBuilder sb = new StringBuilder(story.Continue());
+
+                    story.switchFlow(color);
+                    story.choosePathString(color);
+                    sb.append(story.Continue());
+
+                    String saved = story.getState().toJson();
+                    story.resetState();
+                    story.getState().loadJson(saved);
+
+                    story.chooseChoiceIndex(choice);
+                    sb.append(story.continueMaximally());
+
+                    story.removeFlow(color);
+                    sb.append(story.Continue());
+
+                    return sb.toString();
+                }
+            });
+        }
+
+        List<String> expected = new ArrayList<>();
+        for (StoryRuntime.Session<String> session : sessions) expected.add(session.run(runtime.newStory()));
+
+        try {
+            Assert.assertEquals(expected, runtime.runAll(sessions));
+        } finally {
+            runtime.shutdown();
+        }
+
+        Assert.assertEquals(
+                "Default line 1\nHello I'm red\nThread 2 red choice\nAfter thread 2 choice (red)\nDefault line 2\n",
+                expected.get(3));
+    }
+
+    /**
+     * Test state fingerprints.
+     */
+    @Test
+    public void testStateFingerprint() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/runtime/load-save.ink.json");
+        Story story = new Story(json);
+
+        Assert.assertEquals("We arrived into London at 9.45pm exactly.\n", story.Continue());
+        long atChoice = story.getState().getFingerprint();
+        String saved = story.getState().toJson();
+
+        story.chooseChoiceIndex(0);
+        story.continueMaximally();
+        long ended = story.getState().getFingerprint();
+        Assert.assertNotEquals(atChoice, ended);
+
+        // Same state, either loaded or played again from a load
+        story.getState().loadJson(saved);
+        Assert.assertEquals(atChoice, story.getState().getFingerprint());
+
+        story.chooseChoiceIndex(0);
+        story.continueMaximally();
+        Assert.assertEquals(ended, story.getState().getFingerprint());
+
+        // Fingerprints are the same across stories
+        Story other = new Story(json);
+        other.getState().loadJson(saved);
+        Assert.assertEquals(atChoice, other.getState().getFingerprint());
+
+        other.chooseChoiceIndex(1);
+        other.continueMaximally();
+        Assert.assertNotEquals(ended, other.getState().getFingerprint());
+    }
+
+    /**
+     * Test strings with the same String.hashCode() give different fingerprints.
+     */
+    @Test
+    public void testStateFingerprintStringCollision() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/runtime/set-get-variables.ink.json");
+        Story story = new Story(json);
+
+        Assert.assertEquals("Aa".hashCode(), "BB".hashCode());
+
+        story.getVariablesState().set("x", "Aa");
+        long aa = story.getState().getFingerprint();
+
+        story.getVariablesState().set("x", "BB");
+        Assert.assertNotEquals(aa, story.getState().getFingerprint());
+
+        story.getVariablesState().set("x", "Aa");
+        Assert.assertEquals(aa, story.getState().getFingerprint());
+    }
+
+    /**
+     * Test a published snapshot sees every change to the globals and visit
+     * counts, even ones that leave their hashes the same.
+     */
+    @Test
+    public void testStorySnapshotChanges() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/runtime/set-get-variables.ink.json");
+        Story story = new Story(json);
+        story.setSnapshotPublishing(true);
+
+        story.getVariablesState().set("x", "Aa");
+        story.publishSnapshot();
+        Assert.assertEquals("Aa", story.getPublishedSnapshot().getGlobal("x"));
+
+        story.getVariablesState().set("x", "BB");
+        story.publishSnapshot();
+        Assert.assertEquals("BB", story.getPublishedSnapshot().getGlobal("x"));
+
+        // Loading a state replaces the globals even when nothing was set
+        String saved = story.getState().toJson();
+        story.getVariablesState().set("x", 5);
+        story.publishSnapshot();
+        story.getState().loadJson(saved);
+        story.publishSnapshot();
+        Assert.assertEquals("BB", story.getPublishedSnapshot().getGlobal("x"));
+    }
+
+    /**
+     * Test fast forwarding ends in the same state as continuing, without text.
+     */
+    @Test
+    public void testFastForward() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/runtime/load-save.ink.json");
+        Story story = new Story(json);
+        Story other = new Story(json);
+
+        // Same random seed
+        other.getState().loadJson(story.getState().toJson());
+
+        story.continueMaximally();
+        other.fastForward();
+        Assert.assertEquals(story.getState().getFingerprint(), other.getState().getFingerprint());
+        Assert.assertEquals("", other.getCurrentText());
+        Assert.assertEquals(
+                story.getCurrentChoices().get(1).getText(),
+                other.getCurrentChoices().get(1).getText());
+
+        story.chooseChoiceIndex(1);
+        story.continueMaximally();
+        other.chooseChoiceIndex(1);
+        other.fastForward();
+        Assert.assertEquals(story.getState().getFingerprint(), other.getState().getFingerprint());
+        Assert.assertEquals(0, other.getCurrentTags().size());
+        Assert.assertFalse(other.canContinue());
+    }
+
+    /**
+     * Test fast forwarding into a tunnel gives the same fingerprint as
+     * continuing, although less output was produced when it was entered.
+     */
+    @Test
+    public void testFastForwardFingerprintInTunnel() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/runtime/fingerprint-tunnel.ink.json");
+        Story story = new Story(json);
+        Story other = new Story(json);
+
+        // Same random seed
+        other.getState().loadJson(story.getState().toJson());
+
+        Assert.assertEquals("Hello\n", story.continueMaximally());
+        other.fastForward();
+        Assert.assertEquals(1, other.getCurrentChoices().size());
+        Assert.assertEquals(story.getState().getFingerprint(), other.getState().getFingerprint());
+
+        story.chooseChoiceIndex(0);
+        Assert.assertEquals("Back\n", story.continueMaximally());
+    }
+
+    /**
+     * Test rebuilding a session from a replay log.
+     */
+    @Test
+    public void testReplay() throws Exception {
+        String json = TestUtils.getJsonString("inkfiles/runtime/load-save.ink.json");
+        Story story = new Story(json);
+
+        ReplayLog log = story.startRecording();
+        Assert.assertEquals("We arrived into London at 9.45pm exactly.\n", story.Continue());
+        story.chooseChoiceIndex(1);
+        Assert.assertEquals(
+                "\"Monsieur, let us savour this moment!\" I declared.\n", story.Continue());
+
+        Story other = new Story(json);
+        other.replay(ReplayLog.fromJson(log.toJson()));
+        Assert.assertEquals(story.getState().getFingerprint(), other.getState().getFingerprint());
+        Assert.assertEquals(story.getCurrentText(), other.getCurrentText());
+        Assert.assertEquals(story.continueMaximally(), other.continueMaximally());
+
+        // External functions aren't called, their recorded results are used,
+        // so they don't need to be bound
+        json = TestUtils.getJsonString("inkfiles/runtime/external-function-2-arg.ink.json");
+        story = new Story(json);
+        story.bindExternalFunction("externalFunction", new ExternalFunction2<Integer, Float, Integer>() {
+            @Override
+            protected Integer call(Integer x, Float y) {
+                return 42;
+            }
+        });
+
+        log = story.startRecording();
+        Assert.assertEquals("The value is 42.\n", story.Continue());
+        Assert.assertTrue(log.toJson().contains("\"result\":42"));
+
+        other = new Story(json);
+        other.replay(ReplayLog.fromJson(log.toJson()));
+        Assert.assertFalse(other.canContinue());
+        Assert.assertEquals(0, log.getEventCount());
+    }
+
+    /**
+     * Test working out the first line of each choice in the background.
+     */
+    @Test
+    public void testChoicePrefetcher() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Runnable nothing = new Runnable() {
+            @Override
+            public void run() {}
+        };
+
+        try {
+            String json = TestUtils.getJsonString("inkfiles/runtime/load-save.ink.json");
+            Story story = new Story(json);
+            ChoicePrefetcher prefetcher = new ChoicePrefetcher(story, json, executor);
+
+            story.Continue();
+            prefetcher.prefetch();
+            executor.submit(nothing).get();
+
+            String line = "\"Monsieur, let us savour this moment!\" I declared.\n";
+            Assert.assertEquals(line, prefetcher.getPrefetchedText(1));
+            Assert.assertEquals(line, prefetcher.chooseChoiceIndex(1));
+            Assert.assertEquals(
+                    "My master clouted me firmly around the head and dragged me out of the door.\n", story.Continue());
+
+            // Adopting an outcome keeps the progress made in other flows since
+            // the prefetch
+            story = new Story(json);
+            prefetcher = new ChoicePrefetcher(story, json, executor);
+
+            story.switchFlow("npc");
+            story.Continue();
+            story.chooseChoiceIndex(1);
+            story.Continue();
+            story.switchToDefaultFlow();
+
+            story.Continue();
+            prefetcher.prefetch();
+            executor.submit(nothing).get();
+
+            story.switchFlow("npc");
+            Assert.assertEquals(
+                    "My master clouted me firmly around the head and dragged me out of the door.\n", story.Continue());
+            story.switchToDefaultFlow();
+
+            // The choice taken in the other flow is gone, the visit counts are shared
+            line = "We hurried home to Savile Row as fast as we could.\n";
+            Assert.assertEquals(line, prefetcher.getPrefetchedText(1));
+            Assert.assertEquals(line, prefetcher.chooseChoiceIndex(1));
+
+            story.switchFlow("npc");
+            Assert.assertEquals(
+                    "He insisted that we hurried home to Savile Row as fast as we could.\n", story.Continue());
+
+            // Outcomes are dropped when the state changes
+            json = TestUtils.getJsonString("inkfiles/runtime/simulation.ink.json");
+            story = new Story(json);
+            prefetcher = new ChoicePrefetcher(story, json, executor);
+
+            story.continueMaximally();
+            prefetcher.prefetch();
+            executor.submit(nothing).get();
+            Assert.assertEquals("", prefetcher.getPrefetchedText(0));
+
+            story.getVariablesState().set("gold", 5);
+            Assert.assertNull(prefetcher.getPrefetchedText(0));
+            prefetcher.chooseChoiceIndex(0);
+            Assert.assertEquals(4, story.getVariablesState().get("gold"));
+
+            // While saving in the background the choice is played instead, so
+            // the state being saved isn't touched
+            story = new Story(json);
+            prefetcher = new ChoicePrefetcher(story, json, executor);
+
+            story.continueMaximally();
+            story.getVariablesState().set("gold", 5);
+            prefetcher.prefetch();
+            executor.submit(nothing).get();
+            Assert.assertEquals("", prefetcher.getPrefetchedText(0));
+
+            StoryState saving = story.copyStateForBackgroundThreadSave();
+            String saved = saving.toJson();
+            prefetcher.chooseChoiceIndex(0);
+            Assert.assertEquals(4, story.getVariablesState().get("gold"));
+            Assert.assertEquals(saved, saving.toJson());
+
+            story.backgroundSaveComplete();
+            Assert.assertEquals(4, story.getVariablesState().get("gold"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test reading published snapshots of a story from another thread.
+     */
+    @Test
+    public void testStorySnapshot() throws Exception {
+        final Story story = new Story(TestUtils.getJsonString("inkfiles/runtime/simulation.ink.json"));
+        story.setSnapshotPublishing(true);
+
+        StorySnapshot start = story.getPublishedSnapshot();
+        story.continueMaximally();
+        story.chooseChoiceIndex(1);
+        story.continueMaximally();
+
+        StorySnapshot snapshot = story.getPublishedSnapshot();
+        Assert.assertEquals(0, start.getGlobal("gold"));
+        Assert.assertEquals(2, snapshot.getGlobal("gold"));
+        Assert.assertEquals(1, snapshot.getGlobal("trades"));
+        Assert.assertEquals(3, snapshot.getCurrentChoices().size());
+        Assert.assertEquals("Sell", snapshot.getCurrentChoices().get(1));
+        Assert.assertFalse(snapshot.canContinue());
+
+        // Every Buy or Sell adds 1 trade, and -1 or 2 gold
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicInteger inconsistent = new AtomicInteger();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    StorySnapshot s = story.getPublishedSnapshot();
+                    if (((Integer) s.getGlobal("gold") + (Integer) s.getGlobal("trades")) % 3 != 0)
+                        inconsistent.incrementAndGet();
+                }
+            }
+        };
+        reader.start();
+
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            story.chooseChoiceIndex(random.nextInt(2));
+            story.continueMaximally();
+        }
+
+        done.set(true);
+        reader.join();
+        Assert.assertEquals(0, inconsistent.get());
+    }
+
+    /**
+     * Test exploring every branch of a story.
+     */
+    @Test
+    public void testStoryExplorer() throws Exception {
+        StoryExplorer explorer =
+                new StoryExplorer(TestUtils.getJsonString("inkfiles/divert/complex-branching.ink.json"));
+        StoryExplorer.Report report = explorer.explore();
+
+        Assert.assertEquals(4, report.getStatesExplored());
+        Assert.assertEquals(3, report.getEndings());
+        Assert.assertEquals(0, report.getIssues().size());
+        Assert.assertEquals(1f, report.getCoverage(), 0f);
+        Assert.assertFalse(report.isTruncated());
+
+        // Dead ends are reported with the choices that lead to them
+        explorer = new StoryExplorer(TestUtils.getJsonString("inkfiles/choices/varying-choice.ink.json"));
+        report = explorer.explore();
+
+        Assert.assertEquals(0, report.getEndings());
+        Assert.assertEquals(2, report.getIssues().size());
+        Assert.assertEquals("[0, 0]", report.getIssues().get(0).getChoices().toString());
+        Assert.assertEquals("[1, 0]", report.getIssues().get(1).getChoices().toString());
+        Assert.assertTrue(report.getIssues().get(0).getMessage().contains("ran out of content"));
+
+        // Knots only reachable from game code
+        explorer = new StoryExplorer(TestUtils.getJsonString("inkfiles/tags/tags.ink.json"));
+        report = explorer.explore();
+
+        Assert.assertEquals("[knot, knot.stitch]", report.getUnreachedPaths().toString());
+        Assert.assertEquals(0f, report.getCoverage(), 0f);
+
+        // Never ending stories are cut at the maximum depth
+        explorer = new StoryExplorer(TestUtils.getJsonString("inkfiles/conditional/shuffle.ink.json"));
+        explorer.setMaxDepth(5);
+        report = explorer.explore();
+
+        Assert.assertTrue(report.isTruncated());
+        Assert.assertEquals(6, report.getStatesExplored());
+        Assert.assertEquals(0, report.getIssues().size());
+    }
+
+    /**
+     * Test batch simulation statistics don't depend on the number of threads.
+     */
+    @Test
+    public void testStorySimulator() throws Exception {
+        StorySimulator simulator = new StorySimulator(TestUtils.getJsonString("inkfiles/runtime/simulation.ink.json"));
+        simulator.setSeed(42);
+        simulator.setParallelism(4);
+        StorySimulator.Result result = simulator.run(2000);
+
+        Assert.assertEquals(2000, result.getRuns());
+        Assert.assertEquals(0, result.getFailedRuns());
+        Assert.assertEquals(2, result.getVariableNames().size());
+
+        // Leaving has 1/3 chance each time, so 2 trades on average
+        StorySimulator.VariableStats trades = result.getStats("trades");
+        Assert.assertEquals(2000, trades.getCount());
+        Assert.assertEquals(2.0, trades.getMean(), 0.3);
+        Assert.assertEquals(0.0, trades.getMin(), 0.0);
+        Assert.assertEquals(result.getMeanChoices() - 1, trades.getMean(), 1e-9);
+
+        simulator.setParallelism(1);
+        StorySimulator.Result single = simulator.run(2000);
+
+        Assert.assertEquals(trades.getHistogram(), single.getStats("trades").getHistogram());
+        Assert.assertEquals(result.getStats("gold").getHistogram(), single.getStats("gold").getHistogram());
+        Assert.assertEquals(trades.getVariance(), single.getStats("trades").getVariance(), 1e-9);
+
+        // Runs that never leave are cut short
+        simulator.setChoicePolicy(new StorySimulator.ChoicePolicy() {
+            @Override
+            public int choose(Story story, List<Choice> choices, Random random) {
+                return 1;
+            }
+        });
+        simulator.setMaxChoices(10);
+        result = simulator.run(10);
+
+        Assert.assertEquals(10, result.getTruncatedRuns());
+        Assert.assertEquals(20.0, result.getStats("gold").getMean(), 0.0);
+    }
+
+    private static String withoutSeed(String stateJson) {
+        return stateJson.replaceAll("\"storySeed\":-?[0-9]+", "");
+    }
 }